@@ -0,0 +1,108 @@
+package fi.dy.masa.itemscroller.config;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A class name blacklist, which caches the verdict for each class,
+ * so that checking an object's class is just a ClassValue lookup instead of
+ * getting and hashing the class name every time.
+ * The supported rule formats are:
+ * <br>- "some.package.ClassName" for the exact class
+ * <br>- "some.package.ClassName+" for the class and any of its sub classes
+ * <br>- "some.package.*" for any classes in the package or in its sub packages
+ */
+public class ClassBlacklist
+{
+    private final Set<String> exactNames = new HashSet<String>();
+    private final Set<String> superClassNames = new HashSet<String>();
+    private final Set<String> packageNames = new HashSet<String>();
+    private ClassValue<Boolean> verdicts = this.createVerdictCache();
+
+    /**
+     * Replaces the current rules, and invalidates the cached verdicts
+     */
+    public void setRules(String[] rules)
+    {
+        this.exactNames.clear();
+        this.superClassNames.clear();
+        this.packageNames.clear();
+
+        for (String rule : rules)
+        {
+            rule = rule.trim();
+
+            if (rule.isEmpty())
+            {
+                continue;
+            }
+
+            if (rule.endsWith(".*"))
+            {
+                this.packageNames.add(rule.substring(0, rule.length() - 2));
+            }
+            else if (rule.endsWith("+"))
+            {
+                this.superClassNames.add(rule.substring(0, rule.length() - 1));
+            }
+            else
+            {
+                this.exactNames.add(rule);
+            }
+        }
+
+        // ClassValue entries can't be cleared all at once, so just start using a new one
+        this.verdicts = this.createVerdictCache();
+    }
+
+    public boolean isBlacklisted(Object obj)
+    {
+        return this.verdicts.get(obj.getClass());
+    }
+
+    private ClassValue<Boolean> createVerdictCache()
+    {
+        return new ClassValue<Boolean>()
+        {
+            @Override
+            protected Boolean computeValue(Class<?> clazz)
+            {
+                return ClassBlacklist.this.matches(clazz);
+            }
+        };
+    }
+
+    private boolean matches(Class<?> clazz)
+    {
+        String name = clazz.getName();
+
+        if (this.exactNames.contains(name))
+        {
+            return true;
+        }
+
+        if (this.superClassNames.isEmpty() == false)
+        {
+            for (Class<?> c = clazz; c != null; c = c.getSuperclass())
+            {
+                if (this.superClassNames.contains(c.getName()))
+                {
+                    return true;
+                }
+            }
+        }
+
+        if (this.packageNames.isEmpty() == false)
+        {
+            for (int i = name.lastIndexOf('.'); i > 0; i = name.lastIndexOf('.', i - 1))
+            {
+                if (this.packageNames.contains(name.substring(0, i)))
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
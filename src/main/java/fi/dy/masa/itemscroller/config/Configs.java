@@ -1,8 +1,8 @@
 package fi.dy.masa.itemscroller.config;
 
 import java.io.File;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -41,14 +41,19 @@ public class Configs
     public static boolean enableWSClicking;
 
     public static boolean craftingRecipesStoreToFile;
+    public static boolean craftingRenderCraftableCounts;
     public static boolean craftingRenderRecipeItems;
     public static boolean craftingScrollingSaveFileIsGlobal;
+    public static boolean craftingUseRecipeBookPlacement;
     public static boolean reverseScrollDirectionSingle;
     public static boolean reverseScrollDirectionStacks;
     public static boolean useSlotPositionAwareScrollDirection;
 
-    public static final Set<String> GUI_BLACKLIST = new HashSet<String>();
-    public static final Set<String> SLOT_BLACKLIST = new HashSet<String>();
+    public static int clickBudgetPerTick;
+
+    public static final ClassBlacklist GUI_BLACKLIST = new ClassBlacklist();
+    public static final ClassBlacklist SLOT_BLACKLIST = new ClassBlacklist();
+    public static final Map<String, Integer> CLICK_BUDGETS_PER_SERVER = new HashMap<String, Integer>();
 
     public static File configurationFile;
     public static Configuration config;
@@ -82,11 +87,23 @@ public class Configs
 
         String category = CATEGORY_GENERIC;
 
+        prop = conf.get(category, "clickBudgetPerTick", 64);
+        prop.setComment("The maximum number of emulated slot clicks per client tick for long running operations,\n" +
+                        "like crafting everything possible with the current recipe. 0 means no limit.\n" +
+                        "Per-server overrides can be added to the clickBudgetPerServer list.");
+        clickBudgetPerTick = prop.getInt();
+
         prop = conf.get(category, "craftingRecipesStoreToFile", true);
-        prop.setComment("Enables saving and loading the stored recipes to a file inside minecraft/itemscroller/recipes_worldorservername.nbt,\n" +
-                        "so that they are persistent between game restarts.");
+        prop.setComment("Enables saving and loading the stored recipes to a file inside minecraft/itemscroller/recipes_worldorservername.bin,\n" +
+                        "so that they are persistent between game restarts.\n" +
+                        "The recipes get saved in the background a few seconds after they were last changed.");
         craftingRecipesStoreToFile = prop.getBoolean();
 
+        prop = conf.get(category, "craftingRenderCraftableCounts", true);
+        prop.setComment("If enabled, then the number of times each stored recipe can be crafted\n" +
+                        "with the items in the open inventory is rendered over the stored recipe results");
+        craftingRenderCraftableCounts = prop.getBoolean();
+
         prop = conf.get(category, "craftingRenderRecipeItems", true);
         prop.setComment("If enabled, then the recipe items are rendered for the selected or hovered recipe");
         craftingRenderRecipeItems = prop.getBoolean();
@@ -95,6 +112,14 @@ public class Configs
         prop.setComment("If true, then a single file is used for storing the recipes, instead of per-world or per-server files");
         craftingScrollingSaveFileIsGlobal = prop.getBoolean();
 
+        prop = conf.get(category, "craftingUseRecipeBookPlacement", false);
+        prop.setComment("If enabled, then the vanilla crafting grids (the Crafting Table and the player inventory) are filled\n" +
+                        "using the recipe book's recipe placement, which moves the items with one packet instead of many slot clicks.\n" +
+                        "This only works for recipes that are unlocked in the recipe book. The items get placed by the server,\n" +
+                        "so the matching ingredients may be chosen differently than in the stored recipe.\n" +
+                        "The other crafting grids and the crafting shortcuts that craft right after filling the grid still use slot clicks.");
+        craftingUseRecipeBookPlacement = prop.getBoolean();
+
         prop = conf.get(category, "enableAltClickMoveMatching", true);
         prop.setComment("Enable Alt + click to move all matching stacks\n(same as the Ctrl + scroll functionality).");
         enableAltClickMatching = prop.getBoolean();
@@ -167,7 +192,9 @@ public class Configs
                         "While holding the Recipe key, you can either scroll or press a number key to change the selection.\n" +
                         "A recipe is stored to the currently selected \"recipe slot\" by scrolling over the output slot,\n" +
                         "or by pressing Shift + the Recipe key + a number key.\n" +
-                        "The supported crafting grids must be added to the scrollableCraftingGrids list.");
+                        "The supported crafting grids must be added to the scrollableCraftingGrids list.\n" +
+                        "Ctrl + Alt + Shift + A adds one stack of the selected recipe's results to the crafting queue,\n" +
+                        "Ctrl + Alt + Shift + R crafts everything in the queue, and Ctrl + Alt + Shift + X clears the queue.");
         enableScrollingCrafting = prop.getBoolean();
 
         prop = conf.get(category, "enableScrollingEverything", true);
@@ -198,14 +225,22 @@ public class Configs
         category = CATEGORY_LISTS;
 
         prop = conf.get(category, "blackListedGuis", new String[0]);
-        prop.setComment("A list of GuiContainer classes where Item Scroller shouldn't do anything");
-        GUI_BLACKLIST.clear();
-        for (String str : prop.getStringList()) { GUI_BLACKLIST.add(str); }
+        prop.setComment("A list of GuiContainer classes where Item Scroller shouldn't do anything.\n" +
+                        "Add a '+' to the end of a class name to also include all of its sub classes,\n" +
+                        "or use 'some.package.*' to include all the classes in that package and its sub packages.");
+        GUI_BLACKLIST.setRules(prop.getStringList());
 
         prop = conf.get(category, "blackListedSlots", new String[] { "appeng.client.me.SlotME", "slimeknights.mantle.inventory.SlotWrapper" });
-        prop.setComment("A list of Slot classes that Item Scroller shouldn't use");
-        SLOT_BLACKLIST.clear();
-        for (String str : prop.getStringList()) { SLOT_BLACKLIST.add(str); }
+        prop.setComment("A list of Slot classes that Item Scroller shouldn't use.\n" +
+                        "The same sub class ('+') and package ('.*') rules as in blackListedGuis are supported.");
+        SLOT_BLACKLIST.setRules(prop.getStringList());
+
+        prop = conf.get(category, "clickBudgetPerServer", new String[0]);
+        prop.setComment("Per-server or per-world overrides for the clickBudgetPerTick option.\n" +
+                        "The entries must be one per line, in the following format: servername,clickspertick\n" +
+                        "The server name is the same as used in the recipe file names, ie. the server address\n" +
+                        "with ':' replaced by '_', or the world's folder name in single player.");
+        addClickBudgets(prop.getStringList());
 
         prop = conf.get(category, "craftingGridDefinitions", new String[] {
                 "net.minecraft.client.gui.inventory.GuiCrafting,net.minecraft.inventory.SlotCrafting,0,1-9", // vanilla Crafting Table
@@ -236,6 +271,34 @@ public class Configs
         }
     }
 
+    private static void addClickBudgets(String[] lines)
+    {
+        CLICK_BUDGETS_PER_SERVER.clear();
+
+        for (String line : lines)
+        {
+            int index = line.lastIndexOf(',');
+
+            if (index > 0)
+            {
+                try
+                {
+                    String serverName = line.substring(0, index).trim();
+                    int clicks = Integer.parseInt(line.substring(index + 1).trim());
+                    CLICK_BUDGETS_PER_SERVER.put(serverName, clicks);
+                }
+                catch (NumberFormatException e)
+                {
+                    ItemScroller.logger.warn("addClickBudgets(): Error while parsing the click count for specifier '{}'", line);
+                }
+            }
+            else
+            {
+                ItemScroller.logger.warn("addClickBudgets(): Invalid click budget specifier '{}'", line);
+            }
+        }
+    }
+
     private static void addCraftingGrids(String[] lines)
     {
         CraftingHandler.clearDefinitons();
@@ -1,9 +1,9 @@
 package fi.dy.masa.itemscroller.event;
 
-import java.lang.invoke.MethodHandle;
 import java.lang.ref.WeakReference;
 import java.util.HashSet;
 import java.util.Set;
+import javax.annotation.Nullable;
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.input.Mouse;
 import net.minecraft.client.Minecraft;
@@ -16,6 +16,8 @@ import net.minecraft.inventory.ClickType;
 import net.minecraft.inventory.Slot;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraftforge.client.event.GuiOpenEvent;
 import net.minecraftforge.client.event.GuiScreenEvent;
 import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
@@ -25,9 +27,17 @@ import net.minecraftforge.items.SlotItemHandler;
 import fi.dy.masa.itemscroller.ItemScroller;
 import fi.dy.masa.itemscroller.config.Configs;
 import fi.dy.masa.itemscroller.proxy.ClientProxy;
+import fi.dy.masa.itemscroller.recipes.CraftingHandler;
+import fi.dy.masa.itemscroller.recipes.CraftingRecipe;
 import fi.dy.masa.itemscroller.recipes.RecipeStorage;
+import fi.dy.masa.itemscroller.recipes.RecipeStorageCache;
+import fi.dy.masa.itemscroller.util.ClickScheduler;
+import fi.dy.masa.itemscroller.util.ContainerChangeTracker;
+import fi.dy.masa.itemscroller.util.ContainerIndex;
+import fi.dy.masa.itemscroller.util.IClickTask;
 import fi.dy.masa.itemscroller.util.InventoryUtils;
-import fi.dy.masa.itemscroller.util.MethodHandleUtils;
+import fi.dy.masa.itemscroller.util.RecipeMatchCache;
+import fi.dy.masa.itemscroller.util.SlotPositionIndex;
 
 @SideOnly(Side.CLIENT)
 public class InputEventHandler
@@ -43,9 +53,6 @@ public class InputEventHandler
     private ItemStack stackInCursorLast = InventoryUtils.EMPTY_STACK;
     private RecipeStorage recipes;
 
-    private static final MethodHandle methodHandle_getSlotAtPosition = MethodHandleUtils.getMethodHandleVirtual(GuiContainer.class,
-            new String[] { "func_146975_c", "getSlotAtPosition" }, int.class, int.class);
-
     private InputEventHandler()
     {
         this.initializeRecipeStorage();
@@ -64,12 +71,33 @@ public class InputEventHandler
 
         if (this.disabled == false && guiScreen instanceof GuiContainer &&
             mc != null && mc.player != null &&
-            Configs.GUI_BLACKLIST.contains(guiScreen.getClass().getName()) == false)
+            Configs.GUI_BLACKLIST.isBlacklisted(guiScreen) == false)
         {
             GuiContainer gui = (GuiContainer) guiScreen;
             int dWheel = Mouse.getEventDWheel();
             boolean cancel = false;
 
+            // Don't let any manual clicks interfere with a running scheduled operation,
+            // and queue the scrolling to be handled after it, so that the wheel notches don't get lost
+            if (ClickScheduler.getInstance().isBusy())
+            {
+                if (dWheel != 0 && this.isRecipeViewOpen())
+                {
+                    this.recipes.scrollSelection(dWheel < 0);
+                }
+                else if (dWheel != 0 && gui instanceof GuiContainerCreative == false)
+                {
+                    this.queueScrollInput(gui, dWheel > 0);
+                    event.setCanceled(true);
+                }
+                else if (dWheel != 0 || Mouse.getEventButtonState())
+                {
+                    event.setCanceled(true);
+                }
+
+                return;
+            }
+
             // Allow drag moving alone if the GUI is the creative inventory
             if (gui instanceof GuiContainerCreative)
             {
@@ -148,13 +176,6 @@ public class InputEventHandler
                     {
                         this.recipes.storeCraftingRecipeToCurrentSelection(slot, gui, true);
                         cancel = true;
-
-                        /*
-                        if (Configs.craftingRecipesStoreToFile)
-                        {
-                            this.recipes.writeToDisk();
-                        }
-                        */
                     }
                 }
 
@@ -218,6 +239,16 @@ public class InputEventHandler
         }
     }
 
+    @SubscribeEvent
+    public void onMouseInputEventPost(GuiScreenEvent.MouseInputEvent.Post event)
+    {
+        // Only the button events can click a slot, see GuiScreen#handleMouseInput()
+        if (event.getGui() instanceof GuiContainer && Mouse.getEventButton() != -1)
+        {
+            ContainerChangeTracker.onGuiInput((GuiContainer) event.getGui());
+        }
+    }
+
     @SubscribeEvent
     public void onKeyInputEventPre(GuiScreenEvent.KeyboardInputEvent.Pre event)
     {
@@ -231,8 +262,24 @@ public class InputEventHandler
 
         final int eventKey = Keyboard.getEventKey();
         GuiContainer gui = (GuiContainer) guiScreen;
+
         Slot slot = gui.getSlotUnderMouse();
 
+        // Don't let any shortcuts or slot key presses interfere with a running scheduled operation.
+        // Only allow cancelling it, or closing the GUI, which also cancels it.
+        if (Keyboard.getEventKeyState() && ClickScheduler.getInstance().isBusy() &&
+            eventKey != Keyboard.KEY_ESCAPE && mc.gameSettings.keyBindInventory.isActiveAndMatches(eventKey) == false)
+        {
+            if (ClientProxy.KEY_DISABLE.isActiveAndMatches(eventKey))
+            {
+                ClickScheduler.getInstance().cancelAll();
+                mc.player.playSound(SoundEvents.BLOCK_NOTE_BASS, 0.8f, 0.8f);
+            }
+
+            event.setCanceled(true);
+            return;
+        }
+
         if (Keyboard.getEventKeyState() &&
             GuiScreen.isAltKeyDown() &&
             GuiScreen.isShiftKeyDown() &&
@@ -240,7 +287,34 @@ public class InputEventHandler
         {
             if (eventKey == Keyboard.KEY_C)
             {
-                InventoryUtils.craftEverythingPossibleWithCurrentRecipe(this.recipes.getSelectedRecipe(), gui);
+                InventoryUtils.craftEverythingPossibleWithCurrentRecipe(this.recipes, gui);
+            }
+            // Add one stack of the selected recipe's result items to the crafting queue
+            else if (eventKey == Keyboard.KEY_A)
+            {
+                CraftingRecipe recipe = this.recipes.getSelectedRecipe();
+
+                if (recipe.isValid())
+                {
+                    this.recipes.getCraftingQueue().addJob(recipe, recipe.getResult().getMaxStackSize());
+                    mc.player.playSound(SoundEvents.BLOCK_NOTE_PLING, 0.5f, 1.0f);
+                }
+            }
+            else if (eventKey == Keyboard.KEY_R)
+            {
+                int notFullyRun = InventoryUtils.runCraftingQueue(this.recipes, gui);
+
+                if (notFullyRun > 0)
+                {
+                    mc.player.sendStatusMessage(new TextComponentString(String.format(
+                            "Item Scroller: %d crafting queue job(s) can't be fully run here, the rest stays in the queue", notFullyRun)), true);
+                    mc.player.playSound(SoundEvents.BLOCK_NOTE_BASS, 0.8f, 0.8f);
+                }
+            }
+            else if (eventKey == Keyboard.KEY_X)
+            {
+                this.recipes.getCraftingQueue().clear();
+                mc.player.playSound(SoundEvents.BLOCK_NOTE_BASS, 0.8f, 0.8f);
             }
             else if (eventKey == Keyboard.KEY_T)
             {
@@ -265,7 +339,7 @@ public class InputEventHandler
 
         // Drop all matching stacks from the same inventory when pressing Ctrl + Shift + Drop key
         if (Configs.enableControlShiftDropkeyDropItems && Keyboard.getEventKeyState() &&
-            Configs.GUI_BLACKLIST.contains(gui.getClass().getName()) == false &&
+            Configs.GUI_BLACKLIST.isBlacklisted(gui) == false &&
             GuiScreen.isCtrlKeyDown() && GuiScreen.isShiftKeyDown() &&
             eventKey == mc.gameSettings.keyBindDrop.getKeyCode())
         {
@@ -293,23 +367,64 @@ public class InputEventHandler
                  eventKey >= Keyboard.KEY_1 && eventKey <= Keyboard.KEY_9)
         {
             int index = MathHelper.clamp(eventKey - Keyboard.KEY_1, 0, 8);
-            this.recipes.changeSelectedRecipe(index);
+            this.recipes.changeSelectedRecipe(this.recipes.getFirstRecipeIndexOnCurrentPage() + index);
             event.setCanceled(true);
         }
     }
 
+    @SubscribeEvent
+    public void onKeyInputEventPost(GuiScreenEvent.KeyboardInputEvent.Post event)
+    {
+        // The number keys, the swap hand key and the drop key click the slot under the mouse
+        if (event.getGui() instanceof GuiContainer && Keyboard.getEventKeyState())
+        {
+            ContainerChangeTracker.onGuiInput((GuiContainer) event.getGui());
+        }
+    }
+
+    @SubscribeEvent
+    public void onGuiOpen(GuiOpenEvent event)
+    {
+        if (event.getGui() instanceof GuiContainer)
+        {
+            GuiContainer gui = (GuiContainer) event.getGui();
+            // Build the slot index and the inventory partition, and resolve the crafting grids up front for the new container
+            ContainerIndex.getFor(gui.inventorySlots);
+            CraftingHandler.onGuiOpen(gui);
+        }
+        else
+        {
+            ContainerIndex.clear();
+            CraftingHandler.onGuiOpen(null);
+        }
+    }
+
     @SubscribeEvent
     public void onWorldLoad(WorldEvent.Load event)
     {
-        this.recipes.readFromDisk();
+        // The integrated server's worlds also fire this event, on the server thread
+        if (event.getWorld().isRemote)
+        {
+            // Dimension changes and re-joining a recent server re-use the cached recipes, unless the file has changed
+            this.recipes = RecipeStorageCache.getInstance().getStorage(Configs.craftingScrollingSaveFileIsGlobal);
+            this.recipes.readFromDiskIfChanged();
+            RecipeMatchCache.getInstance().clear();
+        }
     }
 
     @SubscribeEvent
     public void onWorldUnload(WorldEvent.Unload event)
     {
-        if (Configs.craftingRecipesStoreToFile)
+        // The integrated server's worlds also fire this event, on the server thread,
+        // and the recipe storage and the caches are only used from the client thread
+        if (event.getWorld().isRemote)
         {
-            this.recipes.writeToDisk();
+            RecipeMatchCache.getInstance().clear();
+
+            if (Configs.craftingRecipesStoreToFile)
+            {
+                this.recipes.writeToDisk();
+            }
         }
     }
 
@@ -320,9 +435,50 @@ public class InputEventHandler
                 ClientProxy.KEY_RECIPE.getKeyModifier().isActive(ClientProxy.KEY_RECIPE.getKeyConflictContext());
     }
 
+    /**
+     * Queues a scroll wheel notch to be handled after the currently scheduled operations.
+     * The hovered slot and the modifier keys are captured now, as they may have changed by the time the scroll is handled.
+     */
+    private void queueScrollInput(GuiContainer gui, final boolean scrollingUp)
+    {
+        final Slot slot = gui.getSlotUnderMouse();
+        final boolean isShiftDown = GuiScreen.isShiftKeyDown();
+        final boolean isCtrlDown = GuiScreen.isCtrlKeyDown();
+        final RecipeStorage recipes = this.recipes;
+
+        if (slot == null)
+        {
+            return;
+        }
+
+        ClickScheduler.getInstance().schedule(gui, new IClickTask()
+        {
+            @Override
+            public boolean runStep(GuiContainer gui)
+            {
+                InventoryUtils.tryMoveItems(gui, slot, recipes, scrollingUp, isShiftDown, isCtrlDown);
+                return true;
+            }
+
+            @Override
+            public String getProgressText()
+            {
+                return "Scrolling items";
+            }
+        });
+    }
+
     public void initializeRecipeStorage()
     {
-        this.recipes = new RecipeStorage(18, Configs.craftingScrollingSaveFileIsGlobal);
+        // This also saves any unsaved changes of the old storages
+        RecipeStorageCache.getInstance().clear();
+        this.recipes = RecipeStorageCache.getInstance().getStorage(Configs.craftingScrollingSaveFileIsGlobal);
+
+        // The config can change while in a world, the storages are otherwise read when a world is loaded
+        if (Minecraft.getMinecraft().world != null)
+        {
+            this.recipes.readFromDiskIfChanged();
+        }
     }
 
     public RecipeStorage getRecipes()
@@ -463,6 +619,10 @@ public class InputEventHandler
 
         if (cancel == false)
         {
+            // Each point on the path is just a lookup from one grid cell, and each slot along
+            // the path is only handled once, instead of for every pixel inside the slot
+            SlotPositionIndex index = SlotPositionIndex.getFor(gui);
+            Slot slotLast = null;
             int distX = mouseX - this.lastPosX;
             int distY = mouseY - this.lastPosY;
             int absX = Math.abs(distX);
@@ -475,7 +635,14 @@ public class InputEventHandler
                 for (int x = this.lastPosX; ; x += inc)
                 {
                     int y = absX != 0 ? this.lastPosY + ((x - this.lastPosX) * distY / absX) : mouseY;
-                    this.dragMoveFromSlotAtPosition(gui, x, y, type, amount);
+                    Slot slot = index.getSlotAt(x, y);
+
+                    if (slot != null && slot != slotLast)
+                    {
+                        this.dragMoveFromSlot(gui, slot, type, amount);
+                    }
+
+                    slotLast = slot;
 
                     if (x == mouseX)
                     {
@@ -490,7 +657,14 @@ public class InputEventHandler
                 for (int y = this.lastPosY; ; y += inc)
                 {
                     int x = absY != 0 ? this.lastPosX + ((y - this.lastPosY) * distX / absY) : mouseX;
-                    this.dragMoveFromSlotAtPosition(gui, x, y, type, amount);
+                    Slot slot = index.getSlotAt(x, y);
+
+                    if (slot != null && slot != slotLast)
+                    {
+                        this.dragMoveFromSlot(gui, slot, type, amount);
+                    }
+
+                    slotLast = slot;
 
                     if (y == mouseY)
                     {
@@ -624,13 +798,17 @@ public class InputEventHandler
     }
 
     private boolean dragMoveFromSlotAtPosition(GuiContainer gui, int x, int y, MoveType type, MoveAmount amount)
+    {
+        return this.dragMoveFromSlot(gui, this.getSlotAtPosition(gui, x, y), type, amount);
+    }
+
+    private boolean dragMoveFromSlot(GuiContainer gui, @Nullable Slot slot, MoveType type, MoveAmount amount)
     {
         if (gui instanceof GuiContainerCreative)
         {
-            return this.dragMoveFromSlotAtPositionCreative(gui, x, y, type, amount);
+            return this.dragMoveFromSlotCreative(gui, slot, type, amount);
         }
 
-        Slot slot = this.getSlotAtPosition(gui, x, y);
         Minecraft mc = Minecraft.getMinecraft();
         boolean flag = slot != null && InventoryUtils.isValidSlot(slot, gui, true) && slot.canTakeStack(mc.player);
         boolean cancel = flag && (amount == MoveAmount.LEAVE_ONE || amount == MoveAmount.MOVE_ONE);
@@ -684,10 +862,9 @@ public class InputEventHandler
         return cancel;
     }
 
-    private boolean dragMoveFromSlotAtPositionCreative(GuiContainer gui, int x, int y, MoveType type, MoveAmount amount)
+    private boolean dragMoveFromSlotCreative(GuiContainer gui, @Nullable Slot slot, MoveType type, MoveAmount amount)
     {
         GuiContainerCreative guiCreative = (GuiContainerCreative) gui;
-        Slot slot = this.getSlotAtPosition(gui, x, y);
         boolean isPlayerInv = guiCreative.getSelectedTabIndex() == CreativeTabs.INVENTORY.getIndex();
 
         // Only allow dragging from the hotbar slots
@@ -798,18 +975,10 @@ public class InputEventHandler
         InventoryUtils.clickSlot(gui, slot, slotNumber, 0, ClickType.QUICK_MOVE);
     }
 
+    @Nullable
     private Slot getSlotAtPosition(GuiContainer gui, int x, int y)
     {
-        try
-        {
-            return (Slot) methodHandle_getSlotAtPosition.invokeExact(gui, x, y);
-        }
-        catch (Throwable e)
-        {
-            ItemScroller.logger.error("Error while trying invoke GuiContainer#getSlotAtPosition() from {}", gui.getClass().getSimpleName(), e);
-        }
-
-        return null;
+        return SlotPositionIndex.getFor(gui).getSlotAt(x, y);
     }
 
     public enum MoveAmount
@@ -0,0 +1,82 @@
+package fi.dy.masa.itemscroller.event;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import net.minecraft.client.Minecraft;
+import net.minecraft.network.play.server.SPacketSetSlot;
+import net.minecraft.network.play.server.SPacketWindowItems;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.network.FMLNetworkEvent;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+import fi.dy.masa.itemscroller.util.ContainerChangeTracker;
+
+@SideOnly(Side.CLIENT)
+public class NetworkEventHandler
+{
+    private static final NetworkEventHandler INSTANCE = new NetworkEventHandler();
+    private static final String VANILLA_HANDLER_NAME = "packet_handler";
+    private static final String HANDLER_NAME = "itemscroller_slot_updates";
+
+    public static NetworkEventHandler getInstance()
+    {
+        return INSTANCE;
+    }
+
+    @SubscribeEvent
+    public void onClientConnectedToServer(FMLNetworkEvent.ClientConnectedToServerEvent event)
+    {
+        ChannelPipeline pipeline = event.getManager().channel().pipeline();
+
+        if (pipeline.get(VANILLA_HANDLER_NAME) != null && pipeline.get(HANDLER_NAME) == null)
+        {
+            pipeline.addBefore(VANILLA_HANDLER_NAME, HANDLER_NAME, new SlotUpdateHandler());
+        }
+    }
+
+    /**
+     * Tells the ContainerChangeTracker which slots the server has updated.
+     * The packets are read on the network thread, and the vanilla handler schedules the actual slot update
+     * to the client thread. The tracker is notified with another scheduled task after that,
+     * so that the slot has already been updated when the tracker looks at it.
+     */
+    private static class SlotUpdateHandler extends ChannelInboundHandlerAdapter
+    {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+        {
+            if (msg instanceof SPacketSetSlot)
+            {
+                final SPacketSetSlot packet = (SPacketSetSlot) msg;
+                super.channelRead(ctx, msg);
+
+                Minecraft.getMinecraft().addScheduledTask(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        ContainerChangeTracker.onServerSlotUpdate(packet.getWindowId(), packet.getSlot());
+                    }
+                });
+            }
+            else if (msg instanceof SPacketWindowItems)
+            {
+                super.channelRead(ctx, msg);
+
+                Minecraft.getMinecraft().addScheduledTask(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        ContainerChangeTracker.scheduleUpdate();
+                    }
+                });
+            }
+            else
+            {
+                super.channelRead(ctx, msg);
+            }
+        }
+    }
+}
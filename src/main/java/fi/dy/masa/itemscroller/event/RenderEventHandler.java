@@ -16,8 +16,11 @@ import net.minecraft.util.text.TextFormatting;
 import net.minecraftforge.client.event.GuiScreenEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import fi.dy.masa.itemscroller.config.Configs;
+import fi.dy.masa.itemscroller.proxy.ClientProxy;
+import fi.dy.masa.itemscroller.recipes.CraftableCounts;
 import fi.dy.masa.itemscroller.recipes.CraftingRecipe;
 import fi.dy.masa.itemscroller.recipes.RecipeStorage;
+import fi.dy.masa.itemscroller.util.ClickScheduler;
 import fi.dy.masa.itemscroller.util.InventoryUtils;
 
 public class RenderEventHandler
@@ -26,6 +29,7 @@ public class RenderEventHandler
     private static final Vec3d LIGHT0_POS = (new Vec3d( 0.2D, 1.0D, -0.7D)).normalize();
     private static final Vec3d LIGHT1_POS = (new Vec3d(-0.2D, 1.0D,  0.7D)).normalize();
 
+    private final CraftableCounts craftableCounts = new CraftableCounts();
     private ScaledResolution scaledResolution;
 
     public static RenderEventHandler getInstance()
@@ -42,14 +46,19 @@ public class RenderEventHandler
         {
             GuiContainer gui = (GuiContainer) mc.currentScreen;
             RecipeStorage recipes = InputEventHandler.getInstance().getRecipes();
-            final int count = recipes.getRecipeCount();
+            final int count = recipes.getRecipesPerPage();
+            final int firstIndex = recipes.getFirstRecipeIndexOnCurrentPage();
+            final int[] craftableCounts = Configs.craftingRenderCraftableCounts ? this.craftableCounts.getCounts(recipes, gui.inventorySlots) : null;
+            final String title = String.format("Item Scroller quick crafting - page %d / %d", recipes.getCurrentPage() + 1, recipes.getPageCount());
 
-            gui.mc.fontRenderer.drawString("Item Scroller quick crafting", 4, 4, 0xC0C0C0C0);
+            gui.mc.fontRenderer.drawString(title, 4, 4, 0xC0C0C0C0);
 
-            for (int recipeId = 0; recipeId < count; recipeId++)
+            // Only the recipes on the current page are rendered
+            for (int position = 0; position < count; position++)
             {
-                this.renderStoredRecipeStack(recipeId, count, recipes.getRecipe(recipeId).getResult(),
-                        gui, mc, recipeId == recipes.getSelection());
+                final int recipeId = firstIndex + position;
+                this.renderStoredRecipeStack(position, recipeId, count, recipes.getRecipe(recipeId).getResult(),
+                        gui, mc, recipeId == recipes.getSelection(), craftableCounts != null ? craftableCounts[position] : -1);
             }
         }
     }
@@ -59,6 +68,11 @@ public class RenderEventHandler
     {
         Minecraft mc = Minecraft.getMinecraft();
 
+        if (ClickScheduler.getInstance().isBusy() && mc.currentScreen instanceof GuiContainer)
+        {
+            this.renderSchedulerProgress(mc);
+        }
+
         if (InputEventHandler.getInstance().isRecipeViewOpen() && mc.currentScreen instanceof GuiContainer)
         {
             GuiContainer gui = (GuiContainer) mc.currentScreen;
@@ -74,7 +88,7 @@ public class RenderEventHandler
 
                 if (Configs.craftingRenderRecipeItems)
                 {
-                    this.renderRecipeItems(recipe, recipes.getRecipeCount(), gui, mc);
+                    this.renderRecipeItems(recipe, recipes.getRecipesPerPage(), gui, mc);
                 }
 
                 this.renderHoverTooltip(mouseX, mouseY, recipe, gui, mc);
@@ -82,9 +96,9 @@ public class RenderEventHandler
             else if (Configs.craftingRenderRecipeItems)
             {
                 CraftingRecipe recipe = recipes.getSelectedRecipe();
-                this.renderRecipeItems(recipe, recipes.getRecipeCount(), gui, mc);
+                this.renderRecipeItems(recipe, recipes.getRecipesPerPage(), gui, mc);
 
-                ItemStack stack = this.getHoveredRecipeIngredient(mouseX, mouseY, recipe, recipes.getRecipeCount(), gui, mc);
+                ItemStack stack = this.getHoveredRecipeIngredient(mouseX, mouseY, recipe, recipes.getRecipesPerPage(), gui, mc);
 
                 if (InventoryUtils.isStackEmpty(stack) == false)
                 {
@@ -94,6 +108,19 @@ public class RenderEventHandler
         }
     }
 
+    private void renderSchedulerProgress(Minecraft mc)
+    {
+        String str = "Item Scroller: " + ClickScheduler.getInstance().getProgressText();
+        String strCancel = "Press " + ClientProxy.KEY_DISABLE.getDisplayName() + " to cancel";
+        int y = this.getScaledResolution().getScaledHeight() - 2 * (mc.fontRenderer.FONT_HEIGHT + 2);
+
+        GlStateManager.pushMatrix();
+        GlStateManager.translate(0, 0, 400);
+        mc.fontRenderer.drawStringWithShadow(str, 4, y, 0xFFFFFF);
+        mc.fontRenderer.drawStringWithShadow(strCancel, 4, y + mc.fontRenderer.FONT_HEIGHT + 2, 0xC0C0C0);
+        GlStateManager.popMatrix();
+    }
+
     public ScaledResolution getScaledResolution()
     {
         if (this.scaledResolution == null)
@@ -142,18 +169,19 @@ public class RenderEventHandler
             // leave 0.25-th of a stack height gap between each entry
             final float scale = entryHeight / (stackBaseHeight * 1.25f);
             final int stackScaledSize = (int) (stackBaseHeight * scale);
-            final int recipeCount = recipes.getRecipeCount();
+            final int recipeCount = recipes.getRecipesPerPage();
+            final int firstIndex = recipes.getFirstRecipeIndexOnCurrentPage();
 
-            for (int recipeId = 0; recipeId < recipeCount; recipeId++)
+            for (int position = 0; position < recipeCount; position++)
             {
                 // Leave a small gap from the rendered stack to the gui's left edge
-                final int columnOffsetCount = (recipeCount / recipesPerColumn) - (recipeId / recipesPerColumn);
+                final int columnOffsetCount = (recipeCount / recipesPerColumn) - (position / recipesPerColumn);
                 final float x = gui.getGuiLeft() - (columnOffsetCount + 0.2f) * stackScaledSize - (columnOffsetCount - 1) * scale * 20;
-                final int y = (int) (gap + 0.25f * stackScaledSize + (recipeId % recipesPerColumn) * entryHeight);
+                final int y = (int) (gap + 0.25f * stackScaledSize + (position % recipesPerColumn) * entryHeight);
 
                 if (mouseX >= x && mouseX < x + stackScaledSize && mouseY >= y && mouseY < y + stackScaledSize)
                 {
-                    return recipeId;
+                    return firstIndex + position;
                 }
             }
         }
@@ -161,7 +189,8 @@ public class RenderEventHandler
         return -1;
     }
 
-    private void renderStoredRecipeStack(int recipeId, int recipeCount, ItemStack stack, GuiContainer gui, Minecraft mc, boolean selected)
+    private void renderStoredRecipeStack(int position, int recipeId, int recipeCount, ItemStack stack, GuiContainer gui, Minecraft mc,
+            boolean selected, int craftableCount)
     {
         FontRenderer font = getFontRenderer(mc, stack);
         final String indexStr = String.valueOf(recipeId + 1);
@@ -178,9 +207,9 @@ public class RenderEventHandler
         final float scale = entryHeight / (stackBaseHeight * 1.25f);
         final int stackScaledSize = (int) (stackBaseHeight * scale);
         // Leave a small gap from the rendered stack to the gui's left edge. The +12 is some space for the recipe's number text.
-        final int columnOffsetCount = (recipeCount / recipesPerColumn) - (recipeId / recipesPerColumn);
+        final int columnOffsetCount = (recipeCount / recipesPerColumn) - (position / recipesPerColumn);
         final float x = gui.getGuiLeft() - (columnOffsetCount + 0.2f) * stackScaledSize - (columnOffsetCount - 1) * scale * 20;
-        final float y = verticalGap + 0.25f * stackScaledSize + (recipeId % recipesPerColumn) * entryHeight;
+        final float y = verticalGap + 0.25f * stackScaledSize + (position % recipesPerColumn) * entryHeight;
 
         //System.out.printf("sw: %d sh: %d scale: %.3f left: %d usable h: %d entry h: %d\n",
         //        scaledResolution.getScaledWidth(), scaledResolution.getScaledHeight(), scale, guiLeft, usableHeight, entryHeight);
@@ -188,6 +217,24 @@ public class RenderEventHandler
         this.renderStackAt(stack, x, y, selected, scale, stackBaseHeight, mc);
 
         font.drawString(indexStr, (int) (x - scale * strWidth), (int) (y + (entryHeight - font.FONT_HEIGHT) / 2 - 2), 0xC0C0C0);
+
+        if (craftableCount >= 0)
+        {
+            this.renderCraftableCount(craftableCount, x, y, stackScaledSize, mc);
+        }
+    }
+
+    private void renderCraftableCount(int craftableCount, float x, float y, int stackScaledSize, Minecraft mc)
+    {
+        final String countStr = String.valueOf(craftableCount);
+        final int strWidth = mc.fontRenderer.getStringWidth(countStr);
+
+        // Bottom right corner of the stack, like the stack size text, but above the rendered item
+        GlStateManager.pushMatrix();
+        GlStateManager.translate(0, 0, 300);
+        mc.fontRenderer.drawStringWithShadow(countStr, (int) (x + stackScaledSize - strWidth), (int) (y + stackScaledSize - mc.fontRenderer.FONT_HEIGHT + 1),
+                craftableCount > 0 ? 0xFFFFFF : 0xFF6060);
+        GlStateManager.popMatrix();
     }
 
     private void renderRecipeItems(CraftingRecipe recipe, int recipeCount, GuiContainer gui, Minecraft mc)
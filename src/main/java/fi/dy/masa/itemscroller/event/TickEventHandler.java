@@ -0,0 +1,36 @@
+package fi.dy.masa.itemscroller.event;
+
+import net.minecraft.client.Minecraft;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+import fi.dy.masa.itemscroller.config.Configs;
+import fi.dy.masa.itemscroller.util.ClickScheduler;
+import fi.dy.masa.itemscroller.util.ContainerChangeTracker;
+
+@SideOnly(Side.CLIENT)
+public class TickEventHandler
+{
+    private static final TickEventHandler INSTANCE = new TickEventHandler();
+
+    public static TickEventHandler getInstance()
+    {
+        return INSTANCE;
+    }
+
+    @SubscribeEvent
+    public void onClientTick(TickEvent.ClientTickEvent event)
+    {
+        if (event.phase == TickEvent.Phase.END)
+        {
+            ContainerChangeTracker.onClientTick();
+            ClickScheduler.getInstance().onClientTick(Minecraft.getMinecraft());
+
+            if (Configs.craftingRecipesStoreToFile)
+            {
+                InputEventHandler.getInstance().getRecipes().saveIfNeeded();
+            }
+        }
+    }
+}
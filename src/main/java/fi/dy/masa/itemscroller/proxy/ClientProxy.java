@@ -8,7 +8,9 @@ import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.client.registry.ClientRegistry;
 import fi.dy.masa.itemscroller.config.Configs;
 import fi.dy.masa.itemscroller.event.InputEventHandler;
+import fi.dy.masa.itemscroller.event.NetworkEventHandler;
 import fi.dy.masa.itemscroller.event.RenderEventHandler;
+import fi.dy.masa.itemscroller.event.TickEventHandler;
 
 public class ClientProxy extends CommonProxy
 {
@@ -20,7 +22,9 @@ public class ClientProxy extends CommonProxy
     {
         MinecraftForge.EVENT_BUS.register(new Configs());
         MinecraftForge.EVENT_BUS.register(InputEventHandler.getInstance());
+        MinecraftForge.EVENT_BUS.register(NetworkEventHandler.getInstance());
         MinecraftForge.EVENT_BUS.register(RenderEventHandler.getInstance());
+        MinecraftForge.EVENT_BUS.register(TickEventHandler.getInstance());
 
         ClientRegistry.registerKeyBinding(KEY_DISABLE);
         ClientRegistry.registerKeyBinding(KEY_RECIPE);
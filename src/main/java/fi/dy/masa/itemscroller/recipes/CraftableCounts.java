@@ -0,0 +1,77 @@
+package fi.dy.masa.itemscroller.recipes;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import net.minecraft.inventory.Container;
+import fi.dy.masa.itemscroller.util.ContainerIndex;
+import fi.dy.masa.itemscroller.util.IntDeque;
+import fi.dy.masa.itemscroller.util.ItemType;
+
+/**
+ * Keeps track of how many times each stored recipe on the current page could be crafted with the items in the open container.
+ * The counts are computed from the per-ItemType totals of the ContainerIndex, which are updated incrementally
+ * as the slots change, and they are only re-computed when those totals or the stored recipes have changed,
+ * so getting the counts for rendering is normally just a few compares.
+ * The totals don't include the output slots or the worn armor, see ContainerIndex#isCountedSlot().
+ */
+public class CraftableCounts
+{
+    private WeakReference<ContainerIndex> lastIndex = new WeakReference<ContainerIndex>(null);
+    private WeakReference<RecipeStorage> lastRecipes = new WeakReference<RecipeStorage>(null);
+    private int lastCountVersion;
+    private int lastModificationCount;
+    private int lastFirstIndex;
+    private int[] counts = new int[0];
+
+    /**
+     * Returns the number of times each recipe on the current page can be crafted, indexed by the position
+     * on the page, or -1 for the empty recipe slots. The returned array must not be modified.
+     */
+    public int[] getCounts(RecipeStorage recipes, Container container)
+    {
+        ContainerIndex index = ContainerIndex.getFor(container);
+        final int firstIndex = recipes.getFirstRecipeIndexOnCurrentPage();
+
+        if (index != this.lastIndex.get() || index.getCountVersion() != this.lastCountVersion ||
+            recipes != this.lastRecipes.get() || recipes.getModificationCount() != this.lastModificationCount ||
+            firstIndex != this.lastFirstIndex)
+        {
+            this.update(recipes, index, firstIndex);
+            this.lastFirstIndex = firstIndex;
+            this.lastIndex = new WeakReference<ContainerIndex>(index);
+            this.lastRecipes = new WeakReference<RecipeStorage>(recipes);
+            this.lastCountVersion = index.getCountVersion();
+            this.lastModificationCount = recipes.getModificationCount();
+        }
+
+        return this.counts;
+    }
+
+    private void update(RecipeStorage recipes, ContainerIndex index, int firstIndex)
+    {
+        final int recipeCount = recipes.getRecipesPerPage();
+
+        if (this.counts.length != recipeCount)
+        {
+            this.counts = new int[recipeCount];
+        }
+
+        for (int i = 0; i < recipeCount; i++)
+        {
+            CraftingRecipe recipe = recipes.getRecipe(firstIndex + i);
+            this.counts[i] = recipe.isValid() ? getCraftableCount(recipe, index) : -1;
+        }
+    }
+
+    private static int getCraftableCount(CraftingRecipe recipe, ContainerIndex index)
+    {
+        int count = Integer.MAX_VALUE;
+
+        for (Map.Entry<ItemType, IntDeque> entry : recipe.getSlotsPerItem().entrySet())
+        {
+            count = Math.min(count, index.getItemCount(entry.getKey()) / entry.getValue().size());
+        }
+
+        return count != Integer.MAX_VALUE ? count : 0;
+    }
+}
@@ -1,9 +1,10 @@
 package fi.dy.masa.itemscroller.recipes;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import javax.annotation.Nullable;
 import net.minecraft.client.gui.inventory.GuiContainer;
 import net.minecraft.inventory.Slot;
@@ -12,12 +13,16 @@ import fi.dy.masa.itemscroller.ItemScroller;
 public class CraftingHandler
 {
     private static final Map<CraftingOutputSlot, SlotRange> CRAFTING_GRID_SLOTS = new HashMap<CraftingOutputSlot, SlotRange>();
-    private static final Set<Class<? extends GuiContainer>> CRAFTING_GUIS = new HashSet<>();
+    private static final Map<Class<? extends GuiContainer>, List<CraftingOutputSlot>> OUTPUT_SLOTS_PER_GUI = new HashMap<>();
+    private static int definitionsVersion;
+    private static WeakReference<GuiContainer> lastGui = new WeakReference<GuiContainer>(null);
+    private static GuiCraftingGrids lastGrids;
 
     public static void clearDefinitons()
     {
         CRAFTING_GRID_SLOTS.clear();
-        CRAFTING_GUIS.clear();
+        OUTPUT_SLOTS_PER_GUI.clear();
+        definitionsVersion++;
     }
 
     @SuppressWarnings("unchecked")
@@ -28,8 +33,21 @@ public class CraftingHandler
             Class<? extends GuiContainer> guiClass = (Class<? extends GuiContainer>) Class.forName(guiClassName);
             Class<? extends Slot> slotClass = (Class<? extends Slot>) Class.forName(slotClassName);
 
-            CRAFTING_GRID_SLOTS.put(new CraftingOutputSlot(guiClass, slotClass, outputSlot), range);
-            CRAFTING_GUIS.add(guiClass);
+            CraftingOutputSlot key = new CraftingOutputSlot(guiClass, slotClass, outputSlot);
+            List<CraftingOutputSlot> outputSlots = OUTPUT_SLOTS_PER_GUI.get(guiClass);
+
+            if (outputSlots == null)
+            {
+                outputSlots = new ArrayList<CraftingOutputSlot>();
+                OUTPUT_SLOTS_PER_GUI.put(guiClass, outputSlots);
+            }
+
+            if (CRAFTING_GRID_SLOTS.put(key, range) == null)
+            {
+                outputSlots.add(key);
+            }
+
+            definitionsVersion++;
 
             return true;
         }
@@ -51,19 +69,73 @@ public class CraftingHandler
     @Nullable
     public static SlotRange getCraftingGridSlots(GuiContainer gui, Slot slot)
     {
-        return CRAFTING_GRID_SLOTS.get(CraftingOutputSlot.from(gui, slot));
+        GuiCraftingGrids grids = getGridsFor(gui);
+        int slotNum = slot.slotNumber;
+
+        // The slots that aren't in the container's slot list under their slot number (like the creative inventory
+        // wrapper slots) can't use the per-slot-number cache
+        if (slotNum >= 0 && slotNum < grids.ranges.length && grids.slots.get(slotNum) == slot)
+        {
+            return grids.ranges[slotNum];
+        }
+
+        return findCraftingGridSlots(gui, slot);
     }
 
     @Nullable
     public static Slot getFirstCraftingOutputSlotForGui(GuiContainer gui)
     {
-        if (CRAFTING_GUIS.contains(gui.getClass()))
+        return getGridsFor(gui).firstOutputSlot;
+    }
+
+    /**
+     * Resolves the crafting grids of the given GUI up front. This should be called when a GUI is opened.
+     */
+    public static void onGuiOpen(@Nullable GuiContainer gui)
+    {
+        if (gui != null)
+        {
+            getGridsFor(gui);
+        }
+        else
+        {
+            lastGui = new WeakReference<GuiContainer>(null);
+            lastGrids = null;
+        }
+    }
+
+    private static GuiCraftingGrids getGridsFor(GuiContainer gui)
+    {
+        GuiCraftingGrids grids = lastGrids;
+
+        if (grids == null || lastGui.get() != gui || grids.isValidFor(gui) == false)
+        {
+            grids = new GuiCraftingGrids(gui);
+            lastGrids = grids;
+            lastGui = new WeakReference<GuiContainer>(gui);
+        }
+
+        return grids;
+    }
+
+    /**
+     * Finds the crafting grid of the slot from the grid definitions of the GUI's class,
+     * without allocating a key object for the lookup.
+     */
+    @Nullable
+    private static SlotRange findCraftingGridSlots(GuiContainer gui, Slot slot)
+    {
+        List<CraftingOutputSlot> outputSlots = OUTPUT_SLOTS_PER_GUI.get(gui.getClass());
+
+        if (outputSlots != null)
         {
-            for (Slot slot : gui.inventorySlots.inventorySlots)
+            for (int i = 0; i < outputSlots.size(); i++)
             {
-                if (getCraftingGridSlots(gui, slot) != null)
+                CraftingOutputSlot outputSlot = outputSlots.get(i);
+
+                if (outputSlot.matches(gui, slot, slot.slotNumber))
                 {
-                    return slot;
+                    return CRAFTING_GRID_SLOTS.get(outputSlot);
                 }
             }
         }
@@ -71,6 +143,44 @@ public class CraftingHandler
         return null;
     }
 
+    /**
+     * The crafting output slots and grid ranges of one GUI instance, indexed by the output slot number.
+     * This is re-built if the GUI's slot list or the crafting grid definitions change.
+     */
+    private static class GuiCraftingGrids
+    {
+        private final List<Slot> slots;
+        private final SlotRange[] ranges;
+        private final int version;
+        @Nullable private Slot firstOutputSlot;
+
+        private GuiCraftingGrids(GuiContainer gui)
+        {
+            this.slots = gui.inventorySlots.inventorySlots;
+            this.ranges = new SlotRange[this.slots.size()];
+            this.version = definitionsVersion;
+
+            if (OUTPUT_SLOTS_PER_GUI.containsKey(gui.getClass()))
+            {
+                for (int slotNum = 0; slotNum < this.ranges.length; slotNum++)
+                {
+                    Slot slot = this.slots.get(slotNum);
+                    this.ranges[slotNum] = findCraftingGridSlots(gui, slot);
+
+                    if (this.ranges[slotNum] != null && this.firstOutputSlot == null)
+                    {
+                        this.firstOutputSlot = slot;
+                    }
+                }
+            }
+        }
+
+        private boolean isValidFor(GuiContainer gui)
+        {
+            return this.version == definitionsVersion && gui.inventorySlots.inventorySlots == this.slots && this.slots.size() == this.ranges.length;
+        }
+    }
+
     public static class CraftingOutputSlot
     {
         private final Class<? extends GuiContainer> guiClass;
@@ -0,0 +1,212 @@
+package fi.dy.masa.itemscroller.recipes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.item.ItemStack;
+import fi.dy.masa.itemscroller.util.IntDeque;
+import fi.dy.masa.itemscroller.util.InventoryUtils;
+import fi.dy.masa.itemscroller.util.ItemType;
+
+/**
+ * A queue of crafting jobs, ie. "craft N items with recipe A, then M items with recipe B".
+ * The jobs keep a copy of the recipe, so changing the stored recipes doesn't affect the already queued jobs.
+ * When the queue is started, the ingredients are reserved for the jobs in order, so that a later job
+ * can't use the items that an earlier job needs, but it can use the items crafted by the earlier jobs.
+ * The jobs stay in the queue until they have been run, so the jobs that couldn't be run yet,
+ * or that got interrupted by closing the GUI, can be continued later.
+ */
+public class CraftingQueue
+{
+    private final List<Job> jobs = new ArrayList<Job>();
+
+    /**
+     * Adds the given number of result items of the recipe to the end of the queue.
+     * If the last job in the queue is for the same recipe, then its count is increased instead.
+     */
+    public void addJob(CraftingRecipe recipe, int itemCount)
+    {
+        if (recipe.isValid() == false || itemCount <= 0)
+        {
+            return;
+        }
+
+        if (this.jobs.isEmpty() == false)
+        {
+            Job last = this.jobs.get(this.jobs.size() - 1);
+
+            if (last.isSameRecipe(recipe))
+            {
+                last.itemCount += itemCount;
+                return;
+            }
+        }
+
+        this.jobs.add(new Job(recipe, itemCount));
+    }
+
+    public List<Job> getJobs()
+    {
+        return Collections.unmodifiableList(this.jobs);
+    }
+
+    public boolean isEmpty()
+    {
+        return this.jobs.isEmpty();
+    }
+
+    public void clear()
+    {
+        this.jobs.clear();
+    }
+
+    /**
+     * Removes the job from the queue, called when all of the job's items have been crafted
+     */
+    public void removeJob(Job job)
+    {
+        this.jobs.remove(job);
+    }
+
+    /**
+     * Reduces the number of items left to craft for the job, so that an interrupted job only crafts the rest later
+     */
+    public void onItemsCrafted(Job job, int itemCount)
+    {
+        job.itemCount = Math.max(job.itemCount - itemCount, 0);
+    }
+
+    /**
+     * Returns all the ingredient item types used by the queued jobs
+     */
+    public List<ItemType> getIngredientTypes()
+    {
+        List<ItemType> types = new ArrayList<ItemType>();
+
+        for (Job job : this.jobs)
+        {
+            for (ItemType type : job.recipe.getSlotsPerItem().keySet())
+            {
+                if (types.contains(type) == false)
+                {
+                    types.add(type);
+                }
+            }
+        }
+
+        return types;
+    }
+
+    /**
+     * Reserves the ingredients for each job in order, from the given available item counts,
+     * and returns the number of crafts that each job can do (in the same order as getJobs()).
+     * The results of each job are added to the available items for the following jobs.
+     * The jobs with a recipe larger than maxRecipeLength can't be crafted in the grid,
+     * so they don't reserve anything, and their results are not available to the following jobs.
+     */
+    public int[] reserveIngredients(Map<ItemType, Integer> availableCounts, int maxRecipeLength)
+    {
+        Map<ItemType, Long> available = new HashMap<ItemType, Long>();
+        int[] crafts = new int[this.jobs.size()];
+
+        for (Map.Entry<ItemType, Integer> entry : availableCounts.entrySet())
+        {
+            available.put(entry.getKey(), entry.getValue().longValue());
+        }
+
+        for (int i = 0; i < crafts.length; i++)
+        {
+            Job job = this.jobs.get(i);
+
+            if (job.recipe.getRecipeLength() > maxRecipeLength)
+            {
+                continue;
+            }
+
+            Map<ItemType, IntDeque> ingredients = job.recipe.getSlotsPerItem();
+            long count = job.getRequestedCrafts();
+
+            for (Map.Entry<ItemType, IntDeque> entry : ingredients.entrySet())
+            {
+                count = Math.min(count, getOrZero(available, entry.getKey()) / entry.getValue().size());
+            }
+
+            for (Map.Entry<ItemType, IntDeque> entry : ingredients.entrySet())
+            {
+                available.put(entry.getKey(), getOrZero(available, entry.getKey()) - count * entry.getValue().size());
+            }
+
+            ItemType resultType = ItemType.getCanonical(job.recipe.getResult());
+            available.put(resultType, getOrZero(available, resultType) + count * job.getResultSize());
+
+            crafts[i] = (int) count;
+        }
+
+        return crafts;
+    }
+
+    private static long getOrZero(Map<ItemType, Long> map, ItemType type)
+    {
+        Long value = map.get(type);
+        return value != null ? value.longValue() : 0L;
+    }
+
+    public static class Job
+    {
+        private final CraftingRecipe recipe;
+        private int itemCount;
+
+        private Job(CraftingRecipe recipe, int itemCount)
+        {
+            this.recipe = new CraftingRecipe();
+            this.recipe.copyRecipeFrom(recipe);
+            this.itemCount = itemCount;
+        }
+
+        public CraftingRecipe getRecipe()
+        {
+            return this.recipe;
+        }
+
+        public int getItemCount()
+        {
+            return this.itemCount;
+        }
+
+        public int getResultSize()
+        {
+            return Math.max(1, InventoryUtils.getStackSize(this.recipe.getResult()));
+        }
+
+        /**
+         * Returns the number of crafts needed for at least the requested number of items
+         */
+        public int getRequestedCrafts()
+        {
+            return (this.itemCount + this.getResultSize() - 1) / this.getResultSize();
+        }
+
+        private boolean isSameRecipe(CraftingRecipe other)
+        {
+            ItemStack[] items = this.recipe.getRecipeItems();
+            ItemStack[] otherItems = other.getRecipeItems();
+
+            if (items.length != otherItems.length || InventoryUtils.areStacksEqual(this.recipe.getResult(), other.getResult()) == false)
+            {
+                return false;
+            }
+
+            for (int i = 0; i < items.length; i++)
+            {
+                if (InventoryUtils.areStacksEqual(items[i], otherItems[i]) == false)
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -1,19 +1,30 @@
 package fi.dy.masa.itemscroller.recipes;
 
+import java.util.Map;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import net.minecraft.client.gui.inventory.GuiContainer;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.InventoryCrafting;
 import net.minecraft.inventory.Slot;
 import net.minecraft.item.ItemStack;
+import net.minecraft.item.crafting.IRecipe;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.World;
 import net.minecraftforge.common.util.Constants;
 import fi.dy.masa.itemscroller.recipes.CraftingHandler.SlotRange;
+import fi.dy.masa.itemscroller.util.IntDeque;
 import fi.dy.masa.itemscroller.util.InventoryUtils;
+import fi.dy.masa.itemscroller.util.ItemType;
+import fi.dy.masa.itemscroller.util.RecipeMatchCache;
 
 public class CraftingRecipe
 {
     private ItemStack result = InventoryUtils.EMPTY_STACK;
     private ItemStack[] recipe = new ItemStack[9];
+    private Map<ItemType, IntDeque> slotsPerItem;
 
     public CraftingRecipe()
     {
@@ -25,6 +36,7 @@ public class CraftingRecipe
         if (this.getRecipeLength() != size)
         {
             this.recipe = new ItemStack[size];
+            this.slotsPerItem = null;
         }
     }
 
@@ -36,6 +48,7 @@ public class CraftingRecipe
         }
 
         this.result = InventoryUtils.EMPTY_STACK;
+        this.slotsPerItem = null;
     }
 
     public void ensureRecipeSizeAndClearRecipe(int size)
@@ -76,6 +89,16 @@ public class CraftingRecipe
         }
     }
 
+    /**
+     * Sets the recipe contents. The stacks are used as-is, so they must not be used anywhere else.
+     */
+    public void setRecipe(ItemStack result, ItemStack[] items)
+    {
+        this.ensureRecipeSizeAndClearRecipe(items.length);
+        System.arraycopy(items, 0, this.recipe, 0, items.length);
+        this.result = result;
+    }
+
     public void copyRecipeFrom(CraftingRecipe other)
     {
         int size = other.getRecipeLength();
@@ -104,6 +127,8 @@ public class CraftingRecipe
                 this.ensureRecipeSizeAndClearRecipe(length);
             }
 
+            this.slotsPerItem = null;
+
             for (int i = 0; i < count; i++)
             {
                 NBTTagCompound tag = tagIngredients.getCompoundTagAt(i);
@@ -164,6 +189,58 @@ public class CraftingRecipe
         return this.recipe;
     }
 
+    /**
+     * Returns the recipe slot indices for each different ingredient item.
+     * The map is cached until the recipe changes, so it must not be modified.
+     */
+    public Map<ItemType, IntDeque> getSlotsPerItem()
+    {
+        if (this.slotsPerItem == null)
+        {
+            this.slotsPerItem = ItemType.getSlotsPerItem(this.recipe);
+        }
+
+        return this.slotsPerItem;
+    }
+
+    /**
+     * Returns the registered recipe that matches this stored recipe's layout and produces the same result,
+     * or null if there isn't one. The recipe grid is assumed to be square (2x2 or 3x3).
+     */
+    @Nullable
+    public IRecipe findMatchingRecipe(World world)
+    {
+        int size = (int) Math.round(Math.sqrt(this.recipe.length));
+
+        if (this.isValid() == false || size * size != this.recipe.length)
+        {
+            return null;
+        }
+
+        InventoryCrafting inventory = new InventoryCrafting(new Container()
+        {
+            @Override
+            public boolean canInteractWith(EntityPlayer player)
+            {
+                return false;
+            }
+        }, size, size);
+
+        for (int i = 0; i < this.recipe.length; i++)
+        {
+            inventory.setInventorySlotContents(i, this.recipe[i].copy());
+        }
+
+        IRecipe recipe = RecipeMatchCache.getInstance().findMatchingRecipe(inventory, world);
+
+        if (recipe != null && InventoryUtils.areStacksEqual(recipe.getCraftingResult(inventory), this.result))
+        {
+            return recipe;
+        }
+
+        return null;
+    }
+
     public boolean isValid()
     {
         return InventoryUtils.isStackEmpty(this.getResult()) == false;
@@ -0,0 +1,230 @@
+package fi.dy.masa.itemscroller.recipes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import fi.dy.masa.itemscroller.util.IntDeque;
+import fi.dy.masa.itemscroller.util.InventoryUtils;
+import fi.dy.masa.itemscroller.util.ItemType;
+
+/**
+ * The dependency tree of a stored recipe, ie. the other stored recipes that produce
+ * its ingredients, recursively. The intermediate recipes are ordered so that each recipe
+ * comes after all the recipes that produce its ingredients.
+ * The tree only depends on the stored recipes, so it is cached in the RecipeStorage.
+ */
+public class CraftingTree
+{
+    /** Upper limit for the target craft count search */
+    private static final int MAX_CRAFTS = 1 << 20;
+
+    private final CraftingRecipe target;
+    private final List<CraftingRecipe> steps = new ArrayList<CraftingRecipe>();
+    private final Map<ItemType, Integer> stepIndexByResult = new HashMap<ItemType, Integer>();
+    private final Set<ItemType> ingredientTypes = new HashSet<ItemType>();
+
+    public CraftingTree(CraftingRecipe target, RecipeStorage recipes)
+    {
+        this.target = target;
+
+        if (target.isValid())
+        {
+            ItemType targetType = ItemType.getCanonical(target.getResult());
+            List<CraftingRecipe> order = new ArrayList<CraftingRecipe>();
+            this.visit(target, new Producers(recipes, target, targetType), new HashSet<CraftingRecipe>(), new HashSet<CraftingRecipe>(), order);
+
+            // The target itself is the last one in the post-order
+            for (int i = 0; i < order.size() - 1; i++)
+            {
+                CraftingRecipe recipe = order.get(i);
+                this.stepIndexByResult.put(ItemType.getCanonical(recipe.getResult()), this.steps.size());
+                this.steps.add(recipe);
+            }
+        }
+    }
+
+    private void visit(CraftingRecipe recipe, Producers producers,
+            Set<CraftingRecipe> visited, Set<CraftingRecipe> inProgress, List<CraftingRecipe> order)
+    {
+        visited.add(recipe);
+        inProgress.add(recipe);
+
+        for (ItemType type : recipe.getSlotsPerItem().keySet())
+        {
+            CraftingRecipe producer = producers.get(type);
+            this.ingredientTypes.add(type);
+
+            // Skip the back edges of any recipe cycles
+            if (producer != null && visited.contains(producer) == false && inProgress.contains(producer) == false)
+            {
+                this.visit(producer, producers, visited, inProgress, order);
+            }
+        }
+
+        inProgress.remove(recipe);
+        order.add(recipe);
+    }
+
+    public CraftingRecipe getTarget()
+    {
+        return this.target;
+    }
+
+    /**
+     * Returns the intermediate recipes, in the order in which they need to be crafted
+     */
+    public List<CraftingRecipe> getSteps()
+    {
+        return this.steps;
+    }
+
+    /**
+     * Returns all the ingredient item types used anywhere in the tree
+     */
+    public Set<ItemType> getIngredientTypes()
+    {
+        return this.ingredientTypes;
+    }
+
+    /**
+     * Returns the largest number of target crafts that can be done with the given available items,
+     * including crafting the missing intermediate ingredients from the other items.
+     */
+    public int getMaxTargetCrafts(Map<ItemType, Integer> available)
+    {
+        int low = 0;
+        int high = MAX_CRAFTS;
+
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+
+            if (this.getIntermediateCrafts(available, mid) != null)
+            {
+                low = mid;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the number of crafts needed for each intermediate step (in the same order as getSteps()),
+     * to be able to craft the target recipe targetCrafts times, or null if there aren't enough items for that.
+     */
+    public int[] getIntermediateCrafts(Map<ItemType, Integer> available, int targetCrafts)
+    {
+        Map<ItemType, Long> needed = new HashMap<ItemType, Long>();
+        int[] crafts = new int[this.steps.size()];
+
+        addIngredientNeeds(this.target, targetCrafts, needed);
+
+        // Going backwards, all the consumers of a step's result have already added their needs
+        for (int i = this.steps.size() - 1; i >= 0; i--)
+        {
+            CraftingRecipe recipe = this.steps.get(i);
+            ItemType type = ItemType.getCanonical(recipe.getResult());
+            long missing = getOrZero(needed, type) - getOrZero(available, type);
+
+            if (missing > 0)
+            {
+                int yield = Math.max(1, InventoryUtils.getStackSize(recipe.getResult()));
+                long count = (missing + yield - 1) / yield;
+
+                if (count > MAX_CRAFTS)
+                {
+                    return null;
+                }
+
+                crafts[i] = (int) count;
+                addIngredientNeeds(recipe, crafts[i], needed);
+            }
+        }
+
+        for (Map.Entry<ItemType, Long> entry : needed.entrySet())
+        {
+            ItemType type = entry.getKey();
+
+            // The intermediate items are covered by the step crafts above
+            if (this.stepIndexByResult.containsKey(type) == false && entry.getValue() > getOrZero(available, type))
+            {
+                return null;
+            }
+        }
+
+        return crafts;
+    }
+
+    private static void addIngredientNeeds(CraftingRecipe recipe, int crafts, Map<ItemType, Long> needed)
+    {
+        for (Map.Entry<ItemType, IntDeque> entry : recipe.getSlotsPerItem().entrySet())
+        {
+            long count = (long) entry.getValue().size() * crafts;
+            needed.put(entry.getKey(), getOrZero(needed, entry.getKey()) + count);
+        }
+    }
+
+    private static long getOrZero(Map<ItemType, ? extends Number> map, ItemType type)
+    {
+        Number value = map.get(type);
+        return value != null ? value.longValue() : 0L;
+    }
+
+    /**
+     * Finds the stored recipe that produces each item, using the recipe storage's result index.
+     * The recipe with the lowest index is used if there are several.
+     */
+    private static class Producers
+    {
+        private final RecipeStorage recipes;
+        private final CraftingRecipe target;
+        private final ItemType targetType;
+        private final Map<ItemType, CraftingRecipe> producers = new HashMap<ItemType, CraftingRecipe>();
+
+        private Producers(RecipeStorage recipes, CraftingRecipe target, ItemType targetType)
+        {
+            this.recipes = recipes;
+            this.target = target;
+            this.targetType = targetType;
+        }
+
+        @Nullable
+        private CraftingRecipe get(ItemType type)
+        {
+            if (this.producers.containsKey(type))
+            {
+                return this.producers.get(type);
+            }
+
+            IntDeque indices = this.recipes.getRecipeIndicesWithResult(type);
+            CraftingRecipe producer = null;
+            int producerIndex = Integer.MAX_VALUE;
+
+            for (int i = 0; i < indices.size(); i++)
+            {
+                int index = indices.get(i);
+                CraftingRecipe recipe = this.recipes.getRecipe(index);
+
+                // Recipes that use the target item as an ingredient (like ingots from a block) would only undo the crafting
+                if (index < producerIndex && recipe != this.target && recipe.isValid() &&
+                    recipe.getSlotsPerItem().containsKey(this.targetType) == false)
+                {
+                    producer = recipe;
+                    producerIndex = index;
+                }
+            }
+
+            this.producers.put(type, producer);
+
+            return producer;
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package fi.dy.masa.itemscroller.recipes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import fi.dy.masa.itemscroller.ItemScroller;
+import fi.dy.masa.itemscroller.util.IntDeque;
+import fi.dy.masa.itemscroller.util.InventoryUtils;
+import fi.dy.masa.itemscroller.util.ItemType;
+
+/**
+ * The binary recipe file format. The file starts with a dictionary of all the different
+ * item types (registry name, metadata and NBT) used in the recipes, and the recipes then refer
+ * to the item types by their dictionary ids, so each item type is only stored and parsed once per file.
+ * All the counts, ids and indices are stored as variable length integers.
+ * The recipe headers only have the result items, which are needed for the result index right away,
+ * and the offsets of the ingredients in the data block. The ingredients of a recipe are only decoded
+ * when the recipe is first used, so reading a large library doesn't decode every recipe up front.
+ * <pre>
+ * int magic, byte version, varint selected
+ * varint typeCount, typeCount x (string registryName, varint meta, varint nbtLength, byte[nbtLength] nbt)
+ * varint recipeCount, recipeCount x (varint index, varint length, stack result, varint dataOffset)
+ * varint dataLength, byte[dataLength] data, which has length x stack ingredient for each recipe at its dataOffset
+ * stack: varint typeId + 1 (0 for an empty stack), followed by varint count for non-empty stacks
+ * </pre>
+ * The version 1 files have the ingredients right after the result in the recipe headers, and no data block.
+ */
+public class RecipeFileFormat
+{
+    private static final int MAGIC = 0x49535243; // "ISRC"
+    private static final int VERSION = 2;
+    private static final int MAX_LENGTH = 1 << 24;
+
+    /**
+     * A copy of the stored recipes, which can be written on another thread.
+     * The snapshots read from a file keep the file's recipe data, and decode each recipe on its first access.
+     */
+    public static class Snapshot
+    {
+        /** The recipes, with null for the recipes that haven't been decoded yet */
+        private final List<CraftingRecipe> recipes = new ArrayList<CraftingRecipe>();
+        private final List<ItemStack> results = new ArrayList<ItemStack>();
+        private final IntDeque indices = new IntDeque();
+        private final IntDeque lengths = new IntDeque();
+        private final IntDeque dataOffsets = new IntDeque();
+        private final int selected;
+        private ItemStack[] types = new ItemStack[0];
+        private byte[] data = new byte[0];
+
+        public Snapshot(int selected)
+        {
+            this.selected = selected;
+        }
+
+        /**
+         * Adds a copy of the recipe to the snapshot
+         */
+        public void addRecipe(int index, CraftingRecipe recipe)
+        {
+            CraftingRecipe copy = new CraftingRecipe();
+            copy.copyRecipeFrom(recipe);
+            this.addRecipeDirect(index, copy);
+        }
+
+        private void addRecipeDirect(int index, CraftingRecipe recipe)
+        {
+            this.addEntry(index, recipe, recipe.getResult(), recipe.getRecipeItems().length, -1);
+        }
+
+        private void addEntry(int index, @Nullable CraftingRecipe recipe, ItemStack result, int length, int dataOffset)
+        {
+            this.recipes.add(recipe);
+            this.results.add(result);
+            this.indices.add(index);
+            this.lengths.add(length);
+            this.dataOffsets.add(dataOffset);
+        }
+
+        public int getSelection()
+        {
+            return this.selected;
+        }
+
+        public int getRecipeCount()
+        {
+            return this.recipes.size();
+        }
+
+        public int getRecipeIndex(int i)
+        {
+            return this.indices.get(i);
+        }
+
+        /**
+         * Returns the result item of the recipe for the given position in the snapshot,
+         * without decoding the rest of the recipe. The returned stack must not be modified.
+         */
+        public ItemStack getRecipeResult(int i)
+        {
+            return this.results.get(i);
+        }
+
+        /**
+         * Returns the recipe for the given position in the snapshot (not the recipe index).
+         * The snapshots that were read from a file decode the recipe here on the first call,
+         * and give out their recipes as-is, without copying.
+         */
+        public CraftingRecipe getRecipe(int i)
+        {
+            CraftingRecipe recipe = this.recipes.get(i);
+
+            if (recipe == null)
+            {
+                recipe = this.decodeRecipe(i);
+                this.recipes.set(i, recipe);
+            }
+
+            return recipe;
+        }
+
+        private CraftingRecipe decodeRecipe(int i)
+        {
+            CraftingRecipe recipe = new CraftingRecipe();
+            int offset = this.dataOffsets.get(i);
+
+            try
+            {
+                ChannelReader reader = new ChannelReader(ByteBuffer.wrap(this.data, offset, this.data.length - offset));
+                ItemStack[] items = new ItemStack[this.lengths.get(i)];
+
+                for (int slot = 0; slot < items.length; slot++)
+                {
+                    items[slot] = readStack(reader, this.types);
+                }
+
+                recipe.setRecipe(this.results.get(i).copy(), items);
+            }
+            catch (Exception e)
+            {
+                ItemScroller.logger.warn("Failed to decode the stored recipe {}", this.indices.get(i), e);
+            }
+
+            return recipe;
+        }
+    }
+
+    public static void write(Snapshot snapshot, WritableByteChannel channel) throws IOException
+    {
+        ChannelWriter writer = new ChannelWriter(channel);
+        Map<ItemType, Integer> ids = new HashMap<ItemType, Integer>();
+        List<ItemType> types = new ArrayList<ItemType>();
+
+        for (int i = 0; i < snapshot.getRecipeCount(); i++)
+        {
+            CraftingRecipe recipe = snapshot.getRecipe(i);
+            addType(recipe.getResult(), ids, types);
+
+            for (ItemStack stack : recipe.getRecipeItems())
+            {
+                addType(stack, ids, types);
+            }
+        }
+
+        writer.writeInt(MAGIC);
+        writer.writeByte(VERSION);
+        writer.writeVarInt(snapshot.selected);
+        writer.writeVarInt(types.size());
+
+        for (ItemType type : types)
+        {
+            ItemStack stack = type.getStack();
+            NBTTagCompound tag = stack.getTagCompound();
+
+            writer.writeString(String.valueOf(stack.getItem().getRegistryName()));
+            writer.writeVarInt(stack.getMetadata());
+
+            if (tag != null)
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                CompressedStreamTools.write(tag, new DataOutputStream(bytes));
+                writer.writeVarInt(bytes.size());
+                writer.writeBytes(bytes.toByteArray());
+            }
+            else
+            {
+                writer.writeVarInt(0);
+            }
+        }
+
+        // The ingredients go into a separate data block, so that the reader can skip them until they are needed
+        ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+        ChannelWriter dataWriter = new ChannelWriter(Channels.newChannel(dataBytes));
+        int[] dataOffsets = new int[snapshot.getRecipeCount()];
+
+        for (int i = 0; i < dataOffsets.length; i++)
+        {
+            dataOffsets[i] = dataWriter.getPosition();
+
+            for (ItemStack stack : snapshot.getRecipe(i).getRecipeItems())
+            {
+                writeStack(dataWriter, stack, ids);
+            }
+        }
+
+        dataWriter.flush();
+
+        writer.writeVarInt(dataOffsets.length);
+
+        for (int i = 0; i < dataOffsets.length; i++)
+        {
+            CraftingRecipe recipe = snapshot.getRecipe(i);
+
+            writer.writeVarInt(snapshot.getRecipeIndex(i));
+            writer.writeVarInt(recipe.getRecipeItems().length);
+            writeStack(writer, recipe.getResult(), ids);
+            writer.writeVarInt(dataOffsets[i]);
+        }
+
+        writer.writeVarInt(dataBytes.size());
+        writer.writeBytes(dataBytes.toByteArray());
+        writer.flush();
+    }
+
+    public static Snapshot read(ReadableByteChannel channel) throws IOException
+    {
+        ChannelReader reader = new ChannelReader(channel);
+
+        if (reader.readInt() != MAGIC)
+        {
+            throw new IOException("Not a recipe file");
+        }
+
+        int version = reader.readByte();
+
+        if (version > VERSION)
+        {
+            throw new IOException("Unsupported recipe file version " + version);
+        }
+
+        Snapshot snapshot = new Snapshot(reader.readVarInt());
+        ItemStack[] types = new ItemStack[reader.readLength()];
+
+        for (int i = 0; i < types.length; i++)
+        {
+            types[i] = readType(reader);
+        }
+
+        int recipeCount = reader.readLength();
+
+        if (version == 1)
+        {
+            readRecipesVersion1(reader, snapshot, types, recipeCount);
+            return snapshot;
+        }
+
+        int[] recipeIndices = new int[recipeCount];
+        int[] lengths = new int[recipeCount];
+        ItemStack[] results = new ItemStack[recipeCount];
+        int[] dataOffsets = new int[recipeCount];
+
+        for (int i = 0; i < recipeCount; i++)
+        {
+            recipeIndices[i] = reader.readVarInt();
+            lengths[i] = reader.readLength();
+            results[i] = readStack(reader, types);
+            dataOffsets[i] = reader.readLength();
+        }
+
+        snapshot.types = types;
+        snapshot.data = reader.readBytes(reader.readLength());
+
+        for (int i = 0; i < recipeCount; i++)
+        {
+            if (dataOffsets[i] > snapshot.data.length)
+            {
+                throw new IOException("Invalid recipe data offset " + dataOffsets[i]);
+            }
+
+            // Recipes for items that don't exist anymore are dropped, like when reading the old NBT files
+            if (InventoryUtils.isStackEmpty(results[i]) == false && lengths[i] > 0)
+            {
+                snapshot.addEntry(recipeIndices[i], null, results[i], lengths[i], dataOffsets[i]);
+            }
+        }
+
+        return snapshot;
+    }
+
+    private static void readRecipesVersion1(ChannelReader reader, Snapshot snapshot, ItemStack[] types, int recipeCount) throws IOException
+    {
+        for (int i = 0; i < recipeCount; i++)
+        {
+            int index = reader.readVarInt();
+            ItemStack[] items = new ItemStack[reader.readLength()];
+            ItemStack result = readStack(reader, types);
+
+            for (int slot = 0; slot < items.length; slot++)
+            {
+                items[slot] = readStack(reader, types);
+            }
+
+            if (InventoryUtils.isStackEmpty(result) == false && items.length > 0)
+            {
+                CraftingRecipe recipe = new CraftingRecipe();
+                recipe.setRecipe(result, items);
+                snapshot.addRecipeDirect(index, recipe);
+            }
+        }
+    }
+
+    private static void addType(ItemStack stack, Map<ItemType, Integer> ids, List<ItemType> types)
+    {
+        if (InventoryUtils.isStackEmpty(stack) == false)
+        {
+            ItemType type = new ItemType(stack);
+
+            if (ids.containsKey(type) == false)
+            {
+                ids.put(type, types.size());
+                types.add(type);
+            }
+        }
+    }
+
+    private static void writeStack(ChannelWriter writer, ItemStack stack, Map<ItemType, Integer> ids) throws IOException
+    {
+        if (InventoryUtils.isStackEmpty(stack))
+        {
+            writer.writeVarInt(0);
+        }
+        else
+        {
+            writer.writeVarInt(ids.get(new ItemType(stack)) + 1);
+            writer.writeVarInt(InventoryUtils.getStackSize(stack));
+        }
+    }
+
+    private static ItemStack readType(ChannelReader reader) throws IOException
+    {
+        String name = reader.readString();
+        int meta = reader.readVarInt();
+        int nbtLength = reader.readLength();
+        NBTTagCompound tag = null;
+
+        if (nbtLength > 0)
+        {
+            tag = CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(reader.readBytes(nbtLength))));
+        }
+
+        Item item = Item.getByNameOrId(name);
+
+        if (item == null)
+        {
+            ItemScroller.logger.warn("Unknown item '{}' in the stored recipes", name);
+            return InventoryUtils.EMPTY_STACK;
+        }
+
+        ItemStack stack = new ItemStack(item, 1, meta);
+        stack.setTagCompound(tag);
+
+        return stack;
+    }
+
+    private static ItemStack readStack(ChannelReader reader, ItemStack[] types) throws IOException
+    {
+        int id = reader.readVarInt() - 1;
+
+        if (id < 0)
+        {
+            return InventoryUtils.EMPTY_STACK;
+        }
+
+        if (id >= types.length)
+        {
+            throw new IOException("Invalid item type id " + id);
+        }
+
+        int count = reader.readVarInt();
+
+        if (InventoryUtils.isStackEmpty(types[id]))
+        {
+            return InventoryUtils.EMPTY_STACK;
+        }
+
+        ItemStack stack = types[id].copy();
+        InventoryUtils.setStackSize(stack, count);
+
+        return stack;
+    }
+
+    private static class ChannelWriter
+    {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        private int flushedBytes;
+
+        private ChannelWriter(WritableByteChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        /**
+         * Returns the number of bytes written so far
+         */
+        public int getPosition()
+        {
+            return this.flushedBytes + this.buffer.position();
+        }
+
+        private void ensureSpace(int bytes) throws IOException
+        {
+            if (this.buffer.remaining() < bytes)
+            {
+                this.flush();
+            }
+        }
+
+        public void writeByte(int value) throws IOException
+        {
+            this.ensureSpace(1);
+            this.buffer.put((byte) value);
+        }
+
+        public void writeInt(int value) throws IOException
+        {
+            this.ensureSpace(4);
+            this.buffer.putInt(value);
+        }
+
+        public void writeVarInt(int value) throws IOException
+        {
+            this.ensureSpace(5);
+
+            while ((value & ~0x7F) != 0)
+            {
+                this.buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+
+            this.buffer.put((byte) value);
+        }
+
+        public void writeBytes(byte[] bytes) throws IOException
+        {
+            int offset = 0;
+
+            while (offset < bytes.length)
+            {
+                this.ensureSpace(1);
+                int length = Math.min(this.buffer.remaining(), bytes.length - offset);
+                this.buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        public void writeString(String str) throws IOException
+        {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            this.writeVarInt(bytes.length);
+            this.writeBytes(bytes);
+        }
+
+        public void flush() throws IOException
+        {
+            this.flushedBytes += this.buffer.position();
+            this.buffer.flip();
+
+            while (this.buffer.hasRemaining())
+            {
+                this.channel.write(this.buffer);
+            }
+
+            this.buffer.clear();
+        }
+    }
+
+    private static class ChannelReader
+    {
+        @Nullable private final ReadableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        private ChannelReader(ReadableByteChannel channel)
+        {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(8192);
+            this.buffer.flip();
+        }
+
+        /**
+         * Creates a reader for data that is already in memory
+         */
+        private ChannelReader(ByteBuffer buffer)
+        {
+            this.channel = null;
+            this.buffer = buffer;
+        }
+
+        private void ensureAvailable(int bytes) throws IOException
+        {
+            if (this.buffer.remaining() < bytes)
+            {
+                if (this.channel == null)
+                {
+                    throw new EOFException();
+                }
+
+                this.buffer.compact();
+
+                while (this.buffer.position() < bytes)
+                {
+                    if (this.channel.read(this.buffer) < 0)
+                    {
+                        throw new EOFException();
+                    }
+                }
+
+                this.buffer.flip();
+            }
+        }
+
+        public int readByte() throws IOException
+        {
+            this.ensureAvailable(1);
+            return this.buffer.get() & 0xFF;
+        }
+
+        public int readInt() throws IOException
+        {
+            this.ensureAvailable(4);
+            return this.buffer.getInt();
+        }
+
+        public int readVarInt() throws IOException
+        {
+            int value = 0;
+
+            for (int shift = 0; shift < 35; shift += 7)
+            {
+                int b = this.readByte();
+                value |= (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0)
+                {
+                    return value;
+                }
+            }
+
+            throw new IOException("Invalid varint");
+        }
+
+        /**
+         * Reads a varint that is used as a count or a length, and checks that it is sane
+         */
+        public int readLength() throws IOException
+        {
+            int length = this.readVarInt();
+
+            if (length < 0 || length > MAX_LENGTH)
+            {
+                throw new IOException("Invalid length " + length);
+            }
+
+            return length;
+        }
+
+        public byte[] readBytes(int length) throws IOException
+        {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+
+            while (offset < length)
+            {
+                this.ensureAvailable(1);
+                int count = Math.min(this.buffer.remaining(), length - offset);
+                this.buffer.get(bytes, offset, count);
+                offset += count;
+            }
+
+            return bytes;
+        }
+
+        public String readString() throws IOException
+        {
+            return new String(this.readBytes(this.readLength()), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package fi.dy.masa.itemscroller.recipes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import fi.dy.masa.itemscroller.ItemScroller;
+
+/**
+ * Writes the recipe files on a background thread, so that the compression and the file I/O
+ * don't stall the client thread. The writes are done in the order they were submitted.
+ * The snapshot files are first written to a temporary file, which is then atomically moved in place,
+ * so a crash in the middle of a write can't leave behind a broken recipe file.
+ * The journal records are appended to the journal file, and a snapshot write can delete the journal
+ * that it replaces, after the new snapshot is in place.
+ */
+public class RecipeFileWriter
+{
+    private static final RecipeFileWriter INSTANCE = new RecipeFileWriter();
+
+    private final ExecutorService executor;
+    private Future<?> lastWrite;
+
+    private RecipeFileWriter()
+    {
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "ItemScroller recipe writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // The game calls System.exit() right after unloading the world, finish the last writes before that
+        Runtime.getRuntime().addShutdownHook(new Thread("ItemScroller recipe writer shutdown")
+        {
+            @Override
+            public void run()
+            {
+                RecipeFileWriter.this.shutdown();
+            }
+        });
+    }
+
+    public static RecipeFileWriter getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues the given snapshot to be written to the file.
+     * If journalFile is not null, then it gets deleted after the new file has been written.
+     * The snapshot must not be modified after this call.
+     */
+    public synchronized void writeSnapshot(final RecipeFileFormat.Snapshot snapshot, final File file, @Nullable final File journalFile)
+    {
+        this.lastWrite = this.executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (writeFile(snapshot, file) && journalFile != null && journalFile.exists() && journalFile.delete() == false)
+                {
+                    ItemScroller.logger.warn("Failed to delete the recipe journal file '{}'", journalFile.getPath());
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the given records to be appended to the journal file.
+     * The records must not be modified after this call.
+     */
+    public synchronized void appendToJournal(final List<NBTTagCompound> records, final File journalFile)
+    {
+        this.lastWrite = this.executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                appendRecords(records, journalFile);
+            }
+        });
+    }
+
+    /**
+     * Queues the given task to be run on the writer thread, after the previously queued writes
+     */
+    public synchronized void execute(Runnable task)
+    {
+        this.lastWrite = this.executor.submit(task);
+    }
+
+    /**
+     * Waits until all the previously queued writes have finished
+     */
+    public void waitForPendingWrites()
+    {
+        Future<?> lastWrite;
+
+        synchronized (this)
+        {
+            lastWrite = this.lastWrite;
+        }
+
+        if (lastWrite != null)
+        {
+            try
+            {
+                lastWrite.get(10, TimeUnit.SECONDS);
+            }
+            catch (Exception e)
+            {
+                ItemScroller.logger.warn("Failed to wait for the pending recipe file writes", e);
+            }
+        }
+    }
+
+    private void shutdown()
+    {
+        this.executor.shutdown();
+
+        try
+        {
+            this.executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean writeFile(RecipeFileFormat.Snapshot snapshot, File file)
+    {
+        try
+        {
+            File saveDir = file.getParentFile();
+
+            if (createDirectory(saveDir) == false)
+            {
+                return false;
+            }
+
+            File fileTmp = new File(saveDir, file.getName() + ".tmp");
+            FileChannel channel = FileChannel.open(fileTmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            try
+            {
+                RecipeFileFormat.write(snapshot, channel);
+                channel.force(true);
+            }
+            finally
+            {
+                channel.close();
+            }
+
+            moveFile(fileTmp, file);
+
+            return true;
+        }
+        catch (Exception e)
+        {
+            ItemScroller.logger.warn("Failed to write recipes to file '{}'", file.getPath(), e);
+            return false;
+        }
+    }
+
+    private static void appendRecords(List<NBTTagCompound> records, File journalFile)
+    {
+        try
+        {
+            if (createDirectory(journalFile.getParentFile()) == false)
+            {
+                return;
+            }
+
+            FileOutputStream os = new FileOutputStream(journalFile, true);
+
+            try
+            {
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os));
+
+                for (NBTTagCompound record : records)
+                {
+                    CompressedStreamTools.write(record, dos);
+                }
+
+                dos.flush();
+                // The whole point of the journal is to not lose the changes, so make sure they are on the disk
+                os.getFD().sync();
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+        catch (Exception e)
+        {
+            ItemScroller.logger.warn("Failed to append to the recipe journal file '{}'", journalFile.getPath(), e);
+        }
+    }
+
+    private static boolean createDirectory(File dir)
+    {
+        if (dir.exists() == false && dir.mkdirs() == false)
+        {
+            ItemScroller.logger.warn("Failed to create the recipe storage directory '{}'", dir.getPath());
+            return false;
+        }
+
+        return true;
+    }
+
+    private static void moveFile(File source, File target) throws IOException
+    {
+        try
+        {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
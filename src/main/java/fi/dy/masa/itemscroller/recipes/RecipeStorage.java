@@ -1,43 +1,90 @@
 package fi.dy.masa.itemscroller.recipes;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.inventory.GuiContainer;
-import net.minecraft.client.multiplayer.ServerData;
 import net.minecraft.inventory.Slot;
+import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
-import net.minecraft.server.integrated.IntegratedServer;
 import net.minecraftforge.common.util.Constants;
 import fi.dy.masa.itemscroller.ItemScroller;
 import fi.dy.masa.itemscroller.Reference;
-
+import fi.dy.masa.itemscroller.util.IntDeque;
+import fi.dy.masa.itemscroller.util.InventoryUtils;
+import fi.dy.masa.itemscroller.util.ItemType;
+
+/**
+ * A growable library of stored recipes, divided into pages of recipesPerPage recipes.
+ * There is always one empty page after the last page that has recipes, so that new recipes can be stored.
+ * The result items of all the recipes are indexed by their ItemType, so that finding the recipes for an item
+ * doesn't need to go through the whole library.
+ * The recipes are saved as a snapshot file (see RecipeFileFormat) and a journal file. The changes are appended
+ * to the journal, and once the journal gets long enough, a new snapshot is written and the journal is deleted.
+ * Reading the recipes reads the snapshot and then replays the journal on top of it.
+ * The old NBT format files are still read, and they get replaced by a new snapshot on the next save.
+ * Reading the files only decodes the result items of the recipes, for the result index.
+ * The rest of the recipes of a page are only decoded when that page is first accessed.
+ */
 public class RecipeStorage
 {
-    private final CraftingRecipe[] recipes;
-    private final int recipeCount;
-    private final boolean global;
+    /** How long to wait after the last change before saving, so that rapid changes get saved only once */
+    private static final long SAVE_DELAY = 3000L;
+    /** The number of journal records after which the journal is compacted into a new snapshot */
+    private static final int MAX_JOURNAL_RECORDS = 128;
+
+    private final List<Page> pages = new ArrayList<Page>();
+    private final Map<ItemType, IntDeque> recipesByResult = new HashMap<ItemType, IntDeque>();
+    /** The dependency trees of the recipes, built on demand and invalidated whenever any recipe changes */
+    private final Map<Integer, CraftingTree> craftingTrees = new HashMap<Integer, CraftingTree>();
+    /** The recipes that have changed since the last save */
+    private final Set<Integer> changedRecipes = new TreeSet<Integer>();
+    private final CraftingQueue craftingQueue = new CraftingQueue();
+    private final int recipesPerPage;
+    private final String fileName;
     private int selected;
+    private int modificationCount;
     private boolean dirty;
+    private boolean selectionChanged;
+    private long saveTime;
+    /** The snapshot file that the journal is for, ie. the file that was last read or written */
+    @Nullable private File snapshotFile;
+    private int journalRecords;
+    /** The modification times and sizes of the files when they were last read or written by this storage */
+    private volatile long fileStamp = Long.MIN_VALUE;
 
-    public RecipeStorage(int recipeCount, boolean global)
+    /**
+     * Creates a storage for the given save file name (without the extension).
+     * The recipes are not read until readFromDisk() or readFromDiskIfChanged() is called.
+     */
+    public RecipeStorage(int recipesPerPage, String fileName)
     {
-        this.recipes = new CraftingRecipe[recipeCount];
-        this.recipeCount = recipeCount;
-        this.global = global;
+        this.recipesPerPage = recipesPerPage;
+        this.fileName = fileName;
         this.initRecipes();
     }
 
     private void initRecipes()
     {
-        for (int i = 0; i < this.recipes.length; i++)
-        {
-            this.recipes[i] = new CraftingRecipe();
-        }
+        this.pages.clear();
+        this.recipesByResult.clear();
+        this.pages.add(new Page(this.recipesPerPage, true));
     }
 
     public int getSelection()
@@ -47,10 +94,11 @@ public class RecipeStorage
 
     public void changeSelectedRecipe(int index)
     {
-        if (index >= 0 && index < this.recipes.length)
+        if (index >= 0 && index < this.getRecipeCount())
         {
             this.selected = index;
-            this.dirty = true;
+            this.selectionChanged = true;
+            this.markDirty();
         }
     }
 
@@ -59,9 +107,48 @@ public class RecipeStorage
         this.changeSelectedRecipe(this.selected + (forward ? 1 : -1));
     }
 
+    /**
+     * Returns the number of recipe slots in the library, including the empty ones
+     */
     public int getRecipeCount()
     {
-        return this.recipeCount;
+        return this.pages.size() * this.recipesPerPage;
+    }
+
+    public int getRecipesPerPage()
+    {
+        return this.recipesPerPage;
+    }
+
+    public int getPageCount()
+    {
+        return this.pages.size();
+    }
+
+    /**
+     * Returns the page of the selected recipe
+     */
+    public int getCurrentPage()
+    {
+        return this.selected / this.recipesPerPage;
+    }
+
+    public int getFirstRecipeIndexOnCurrentPage()
+    {
+        return this.getCurrentPage() * this.recipesPerPage;
+    }
+
+    public CraftingQueue getCraftingQueue()
+    {
+        return this.craftingQueue;
+    }
+
+    /**
+     * Returns a number that changes whenever any of the stored recipes change
+     */
+    public int getModificationCount()
+    {
+        return this.modificationCount;
     }
 
     /**
@@ -71,12 +158,12 @@ public class RecipeStorage
     @Nonnull
     public CraftingRecipe getRecipe(int index)
     {
-        if (index >= 0 && index < this.recipes.length)
+        if (index < 0 || index >= this.getRecipeCount())
         {
-            return this.recipes[index];
+            index = 0;
         }
 
-        return this.recipes[0];
+        return this.getLoadedPage(index / this.recipesPerPage).recipes[index % this.recipesPerPage];
     }
 
     @Nonnull
@@ -85,6 +172,46 @@ public class RecipeStorage
         return this.getRecipe(this.getSelection());
     }
 
+    /**
+     * Returns the indices of the recipes that have the given result item.
+     * The returned list must not be modified.
+     */
+    public IntDeque getRecipeIndicesWithResult(ItemType result)
+    {
+        IntDeque indices = this.recipesByResult.get(result);
+        return indices != null ? indices : new IntDeque(0);
+    }
+
+    /**
+     * Returns the dependency tree of the recipe for the given index, ie. the other stored recipes
+     * that can be used to craft its missing ingredients.
+     * If the index is invalid, then the tree for the first recipe is returned.
+     */
+    @Nonnull
+    public CraftingTree getCraftingTree(int index)
+    {
+        if (index < 0 || index >= this.getRecipeCount())
+        {
+            index = 0;
+        }
+
+        CraftingTree tree = this.craftingTrees.get(index);
+
+        if (tree == null)
+        {
+            tree = new CraftingTree(this.getRecipe(index), this);
+            this.craftingTrees.put(index, tree);
+        }
+
+        return tree;
+    }
+
+    @Nonnull
+    public CraftingTree getSelectedCraftingTree()
+    {
+        return this.getCraftingTree(this.getSelection());
+    }
+
     public void storeCraftingRecipeToCurrentSelection(Slot slot, GuiContainer gui, boolean clearIfEmpty)
     {
         this.storeCraftingRecipe(this.getSelection(), slot, gui, clearIfEmpty);
@@ -92,14 +219,108 @@ public class RecipeStorage
 
     public void storeCraftingRecipe(int index, Slot slot, GuiContainer gui, boolean clearIfEmpty)
     {
-        this.getRecipe(index).storeCraftingRecipe(slot, gui, clearIfEmpty);
-        this.dirty = true;
+        if (index >= 0 && index < this.getRecipeCount())
+        {
+            this.getRecipe(index).storeCraftingRecipe(slot, gui, clearIfEmpty);
+            this.onRecipeChanged(index);
+        }
     }
 
     public void clearRecipe(int index)
     {
-        this.getRecipe(index).clearRecipe();
+        if (index >= 0 && index < this.getRecipeCount())
+        {
+            this.getRecipe(index).clearRecipe();
+            this.onRecipeChanged(index);
+        }
+    }
+
+    private void onRecipeChanged(int index)
+    {
+        Page page = this.pages.get(index / this.recipesPerPage);
+        int pos = index % this.recipesPerPage;
+        CraftingRecipe recipe = page.recipes[pos];
+
+        this.removeFromResultIndex(page.resultTypes[pos], index);
+        page.resultTypes[pos] = recipe.isValid() ? ItemType.getCanonical(recipe.getResult()) : null;
+        this.addToResultIndex(page.resultTypes[pos], index);
+
+        // Keep one empty page after the last used page
+        if (recipe.isValid() && index / this.recipesPerPage == this.pages.size() - 1)
+        {
+            this.pages.add(new Page(this.recipesPerPage, true));
+        }
+
+        this.onRecipesChanged();
+        this.changedRecipes.add(index);
+        this.markDirty();
+    }
+
+    private void onRecipesChanged()
+    {
+        this.craftingTrees.clear();
+        this.modificationCount++;
+    }
+
+    private void markDirty()
+    {
         this.dirty = true;
+        this.saveTime = System.currentTimeMillis() + SAVE_DELAY;
+    }
+
+    private Page getLoadedPage(int pageIndex)
+    {
+        Page page = this.pages.get(pageIndex);
+
+        if (page.recipes == null)
+        {
+            page.load();
+        }
+
+        return page;
+    }
+
+    private void addToResultIndex(@Nullable ItemType type, int index)
+    {
+        if (type != null)
+        {
+            IntDeque indices = this.recipesByResult.get(type);
+
+            if (indices == null)
+            {
+                indices = new IntDeque(2);
+                this.recipesByResult.put(type, indices);
+            }
+
+            indices.add(index);
+        }
+    }
+
+    private void removeFromResultIndex(@Nullable ItemType type, int index)
+    {
+        IntDeque indices = type != null ? this.recipesByResult.get(type) : null;
+
+        if (indices != null)
+        {
+            IntDeque remaining = new IntDeque(indices.size());
+
+            for (int i = 0; i < indices.size(); i++)
+            {
+                if (indices.get(i) != index)
+                {
+                    remaining.add(indices.get(i));
+                }
+            }
+
+            if (remaining.isEmpty())
+            {
+                this.recipesByResult.remove(type);
+            }
+            else
+            {
+                this.recipesByResult.put(type, remaining);
+            }
+        }
     }
 
     private void readFromNBT(NBTTagCompound nbt)
@@ -109,78 +330,348 @@ public class RecipeStorage
             return;
         }
 
-        for (int i = 0; i < this.recipes.length; i++)
-        {
-            this.recipes[i].clearRecipe();
-        }
+        this.pages.clear();
+        this.recipesByResult.clear();
 
         NBTTagList tagList = nbt.getTagList("Recipes", Constants.NBT.TAG_COMPOUND);
         int count = tagList.tagCount();
 
         for (int i = 0; i < count; i++)
         {
-            NBTTagCompound tag = tagList.getCompoundTagAt(i);
+            this.readRecipeTag(tagList.getCompoundTagAt(i));
+        }
+
+        this.addEmptyLastPageIfNeeded();
+        this.onRecipesChanged();
+        // Older files have the selection as a byte, getInteger() reads those too
+        this.changeSelectedRecipe(nbt.getInteger("Selected"));
+    }
+
+    /**
+     * Reads one recipe from the snapshot or the journal, replacing the existing recipe in the same index.
+     * A tag without a result clears the recipe.
+     */
+    private void readRecipeTag(NBTTagCompound tag)
+    {
+        // Older files have the index as a byte, getInteger() reads those too
+        int index = tag.getInteger("RecipeIndex");
+
+        if (index < 0)
+        {
+            return;
+        }
+
+        int pageIndex = index / this.recipesPerPage;
+        int pos = index % this.recipesPerPage;
+
+        while (this.pages.size() <= pageIndex)
+        {
+            this.pages.add(new Page(this.recipesPerPage, false));
+        }
+
+        // Only the result item is read here for the result index, the rest of the recipe is read when the page is used
+        ItemStack result = new ItemStack(tag.getCompoundTag("Result"));
+        boolean valid = InventoryUtils.isStackEmpty(result) == false;
+        Page page = this.pages.get(pageIndex);
 
-            int index = tag.getByte("RecipeIndex");
+        this.removeFromResultIndex(page.resultTypes[pos], index);
+        page.resultTypes[pos] = valid ? ItemType.getCanonical(result) : null;
+        this.addToResultIndex(page.resultTypes[pos], index);
 
-            if (index >= 0 && index < this.recipes.length)
+        if (page.recipes == null)
+        {
+            page.pendingTags[pos] = valid ? tag : null;
+            page.pendingSnapshotRecipes[pos] = -1;
+        }
+        else if (valid)
+        {
+            page.recipes[pos].readFromNBT(tag);
+        }
+        else
+        {
+            page.recipes[pos].clearRecipe();
+        }
+    }
+
+    private void addEmptyLastPageIfNeeded()
+    {
+        if (this.pages.isEmpty() || this.pages.get(this.pages.size() - 1).isEmpty() == false)
+        {
+            this.pages.add(new Page(this.recipesPerPage, true));
+        }
+    }
+
+    /**
+     * Replays the records of the journal file on top of the current recipes.
+     * If the journal ends in a broken record, like one that was cut off by a crash while it was being written,
+     * then the journal is truncated to the last complete record, so that the later appends can be read again.
+     * Returns the number of records read.
+     */
+    private int readJournal(File journalFile)
+    {
+        int count = 0;
+        int selected = -1;
+        long validLength = 0;
+        long fileLength = 0;
+
+        try
+        {
+            byte[] bytes = Files.readAllBytes(journalFile.toPath());
+            ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
+            DataInputStream is = new DataInputStream(bais);
+            fileLength = bytes.length;
+
+            while (bais.available() > 0)
             {
-                this.recipes[index].readFromNBT(tag);
+                NBTTagCompound tag = CompressedStreamTools.read(is);
+
+                if (tag.hasKey("RecipeIndex"))
+                {
+                    this.readRecipeTag(tag);
+                }
+                else
+                {
+                    selected = tag.getInteger("Selected");
+                }
+
+                count++;
+                validLength = bytes.length - bais.available();
             }
         }
+        catch (Exception e)
+        {
+            ItemScroller.logger.warn("Failed to read the recipe journal file '{}', ignoring the rest of it", journalFile.getPath(), e);
+        }
+
+        if (validLength < fileLength && truncateFile(journalFile, validLength) == false)
+        {
+            // The broken record couldn't be removed, so the next save replaces the journal with a new snapshot
+            this.snapshotFile = null;
+        }
 
-        this.changeSelectedRecipe(nbt.getByte("Selected"));
+        this.addEmptyLastPageIfNeeded();
+        this.onRecipesChanged();
+
+        // The selection can be on the empty last page, so it's restored only after that page exists
+        if (selected >= 0)
+        {
+            this.changeSelectedRecipe(selected);
+        }
+
+        return count;
     }
 
-    private NBTTagCompound writeToNBT(@Nonnull NBTTagCompound nbt)
+    private static boolean truncateFile(File file, long length)
     {
-        NBTTagList tagRecipes = new NBTTagList();
-
-        for (int i = 0; i < this.recipes.length; i++)
+        try
         {
-            if (this.recipes[i].isValid())
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+
+            try
+            {
+                channel.truncate(length);
+                channel.force(true);
+            }
+            finally
             {
-                NBTTagCompound tag = new NBTTagCompound();
-                tag.setByte("RecipeIndex", (byte) i);
-                this.recipes[i].writeToNBT(tag);
-                tagRecipes.appendTag(tag);
+                channel.close();
             }
+
+            ItemScroller.logger.warn("Removed a broken record from the end of the recipe journal file '{}'", file.getPath());
+
+            return true;
+        }
+        catch (Exception e)
+        {
+            ItemScroller.logger.warn("Failed to truncate the recipe journal file '{}'", file.getPath(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Creates the journal records for the changes since the last save
+     */
+    private List<NBTTagCompound> createJournalRecords()
+    {
+        List<NBTTagCompound> records = new ArrayList<NBTTagCompound>();
+
+        for (int index : this.changedRecipes)
+        {
+            NBTTagCompound tag = new NBTTagCompound();
+            tag.setInteger("RecipeIndex", index);
+            // An invalid (cleared) recipe doesn't write anything, which clears it when the journal is replayed
+            this.getRecipe(index).writeToNBT(tag);
+            records.add(tag);
         }
 
-        nbt.setTag("Recipes", tagRecipes);
-        nbt.setByte("Selected", (byte) this.selected);
+        if (this.selectionChanged)
+        {
+            NBTTagCompound tag = new NBTTagCompound();
+            tag.setInteger("Selected", this.selected);
+            records.add(tag);
+        }
 
-        return nbt;
+        return records;
     }
 
-    private String getFileName()
+    private void readFromSnapshot(RecipeFileFormat.Snapshot snapshot)
     {
-        String name = "recipes.nbt";
-        Minecraft mc = Minecraft.getMinecraft();
+        this.pages.clear();
+        this.recipesByResult.clear();
 
-        if (this.global == false)
+        for (int i = 0; i < snapshot.getRecipeCount(); i++)
         {
-            if (mc.isSingleplayer())
+            int index = snapshot.getRecipeIndex(i);
+
+            if (index >= 0)
             {
-                IntegratedServer server = mc.getIntegratedServer();
+                int pageIndex = index / this.recipesPerPage;
+                int pos = index % this.recipesPerPage;
 
-                if (server != null)
+                while (this.pages.size() <= pageIndex)
                 {
-                    name = "recipes_" + server.getFolderName() + ".nbt";
+                    this.pages.add(new Page(this.recipesPerPage, false));
                 }
+
+                // Only the result item is used here for the result index, the recipe is decoded when the page is used
+                Page page = this.pages.get(pageIndex);
+                page.pendingSnapshot = snapshot;
+                page.pendingSnapshotRecipes[pos] = i;
+                page.pendingTags[pos] = null;
+
+                this.removeFromResultIndex(page.resultTypes[pos], index);
+                page.resultTypes[pos] = ItemType.getCanonical(snapshot.getRecipeResult(i));
+                this.addToResultIndex(page.resultTypes[pos], index);
             }
-            else
+        }
+
+        this.addEmptyLastPageIfNeeded();
+        this.onRecipesChanged();
+        this.changeSelectedRecipe(snapshot.getSelection());
+    }
+
+    private RecipeFileFormat.Snapshot createSnapshot()
+    {
+        RecipeFileFormat.Snapshot snapshot = new RecipeFileFormat.Snapshot(this.selected);
+
+        for (int pageIndex = 0; pageIndex < this.pages.size(); pageIndex++)
+        {
+            // The pages that haven't been used yet get loaded here once
+            Page page = this.getLoadedPage(pageIndex);
+
+            for (int pos = 0; pos < this.recipesPerPage; pos++)
             {
-                ServerData server = mc.getCurrentServerData();
+                if (page.recipes[pos].isValid())
+                {
+                    snapshot.addRecipe(pageIndex * this.recipesPerPage + pos, page.recipes[pos]);
+                }
+            }
+        }
 
-                if (server != null)
+        return snapshot;
+    }
+
+    /**
+     * A page of recipes. Until the page is loaded, its recipes are kept in the form they were read in:
+     * either as NBT tags from an old file or the journal, or as positions in the snapshot read from the binary file.
+     */
+    private static class Page
+    {
+        @Nullable private CraftingRecipe[] recipes;
+        private final NBTTagCompound[] pendingTags;
+        private final int[] pendingSnapshotRecipes;
+        @Nullable private RecipeFileFormat.Snapshot pendingSnapshot;
+        private final ItemType[] resultTypes;
+
+        private Page(int size, boolean loaded)
+        {
+            this.pendingTags = new NBTTagCompound[size];
+            this.pendingSnapshotRecipes = new int[size];
+            this.resultTypes = new ItemType[size];
+            Arrays.fill(this.pendingSnapshotRecipes, -1);
+
+            if (loaded)
+            {
+                this.load();
+            }
+        }
+
+        private boolean isEmpty()
+        {
+            for (ItemType type : this.resultTypes)
+            {
+                if (type != null)
                 {
-                    name = "recipes_" + server.serverIP.replace(':', '_') + ".nbt";
+                    return false;
                 }
             }
+
+            return true;
         }
 
-        return name;
+        private void load()
+        {
+            this.recipes = new CraftingRecipe[this.pendingTags.length];
+
+            for (int i = 0; i < this.recipes.length; i++)
+            {
+                if (this.pendingSnapshot != null && this.pendingSnapshotRecipes[i] >= 0)
+                {
+                    this.recipes[i] = this.pendingSnapshot.getRecipe(this.pendingSnapshotRecipes[i]);
+                    this.pendingSnapshotRecipes[i] = -1;
+                }
+                else
+                {
+                    this.recipes[i] = new CraftingRecipe();
+
+                    if (this.pendingTags[i] != null)
+                    {
+                        this.recipes[i].readFromNBT(this.pendingTags[i]);
+                        this.pendingTags[i] = null;
+                    }
+                }
+            }
+
+            // Don't keep the file's data alive for the pages that are already loaded
+            this.pendingSnapshot = null;
+        }
+    }
+
+    /**
+     * Returns the file name without the extension
+     */
+    public String getFileName()
+    {
+        return this.fileName;
+    }
+
+    /**
+     * Returns a value that changes whenever any of the recipe files of this storage change
+     */
+    private long getFileStamp()
+    {
+        File saveDir = this.getSaveDir();
+        File file = new File(saveDir, this.getFileName() + ".bin");
+        File[] files = new File[] { file, getJournalFile(file), new File(saveDir, this.getFileName() + ".nbt") };
+        long stamp = 0;
+
+        for (File f : files)
+        {
+            stamp = stamp * 31 + f.lastModified();
+            stamp = stamp * 31 + f.length();
+        }
+
+        return stamp;
+    }
+
+    private static boolean isReadableFile(File file)
+    {
+        return file.exists() && file.isFile() && file.canRead();
+    }
+
+    private static File getJournalFile(File snapshotFile)
+    {
+        return new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".log");
     }
 
     private File getSaveDir()
@@ -188,23 +679,89 @@ public class RecipeStorage
         return new File(Minecraft.getMinecraft().gameDir, Reference.MOD_ID);
     }
 
+    /**
+     * Reads the recipes from the files, if they have changed since they were last read or written by this storage
+     */
+    public void readFromDiskIfChanged()
+    {
+        // Wait for our own writes, so that they don't count as changes
+        RecipeFileWriter.getInstance().waitForPendingWrites();
+
+        if (this.getFileStamp() != this.fileStamp)
+        {
+            this.readFromDisk();
+        }
+    }
+
     public void readFromDisk()
     {
+        // Don't read a file that still has a write queued
+        RecipeFileWriter.getInstance().waitForPendingWrites();
+
         try
         {
             File saveDir = this.getSaveDir();
 
             if (saveDir != null)
             {
-                File file = new File(saveDir, this.getFileName());
+                File file = new File(saveDir, this.getFileName() + ".bin");
+                File fileOld = new File(saveDir, this.getFileName() + ".nbt");
+                File journalFile = getJournalFile(file);
+                boolean read = false;
+                boolean migrate = false;
+
+                this.snapshotFile = null;
+                this.journalRecords = 0;
 
-                if (file.exists() && file.isFile() && file.canRead())
+                if (isReadableFile(file))
                 {
-                    FileInputStream is = new FileInputStream(file);
+                    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+                    try
+                    {
+                        this.readFromSnapshot(RecipeFileFormat.read(channel));
+                    }
+                    finally
+                    {
+                        channel.close();
+                    }
+
+                    this.snapshotFile = file;
+                    read = true;
+                    //ItemScroller.logger.info("Read recipes from file '{}'", file.getPath());
+                }
+                else if (isReadableFile(fileOld))
+                {
+                    FileInputStream is = new FileInputStream(fileOld);
                     this.readFromNBT(CompressedStreamTools.readCompressed(is));
                     is.close();
-                    //ItemScroller.logger.info("Read recipes from file '{}'", file.getPath());
+                    read = true;
+                    migrate = true;
+                    ItemScroller.logger.info("Converting the recipes from file '{}' to the new format", fileOld.getPath());
+                }
+
+                if (isReadableFile(journalFile))
+                {
+                    this.journalRecords = this.readJournal(journalFile);
+                    read = true;
+                }
+
+                if (read)
+                {
+                    // Restoring the recipes and the selection doesn't need a save
+                    this.changedRecipes.clear();
+                    this.selectionChanged = false;
+                    this.dirty = false;
                 }
+
+                // There is no snapshot in the new format yet, so this will save one
+                if (migrate)
+                {
+                    this.markDirty();
+                }
+
+                // The stamp is taken after reading, as reading the journal can truncate it
+                this.fileStamp = this.getFileStamp();
             }
         }
         catch (Exception e)
@@ -213,46 +770,65 @@ public class RecipeStorage
         }
     }
 
+    /**
+     * Saves the recipes, if they have changed and nothing has been changed for a while.
+     * Called every client tick.
+     */
+    public void saveIfNeeded()
+    {
+        if (this.dirty && System.currentTimeMillis() >= this.saveTime)
+        {
+            this.writeToDisk();
+        }
+    }
+
+    /**
+     * Queues the changes since the last save to be appended to the journal on the background thread.
+     * If the journal has gotten long, or the recipes haven't been saved to the current file yet,
+     * then a snapshot of all the recipes is written instead, which replaces the journal.
+     */
     public void writeToDisk()
     {
         if (this.dirty)
         {
-            try
+            File saveDir = this.getSaveDir();
+
+            if (saveDir != null)
             {
-                File saveDir = this.getSaveDir();
+                RecipeFileWriter writer = RecipeFileWriter.getInstance();
+                File file = new File(saveDir, this.getFileName() + ".bin");
+                File journalFile = getJournalFile(file);
+                boolean hasSnapshot = file.equals(this.snapshotFile);
 
-                if (saveDir == null)
+                // The changes are appended even if a snapshot follows, so that they are not lost if the snapshot write fails
+                if (hasSnapshot)
                 {
-                    return;
+                    List<NBTTagCompound> records = this.createJournalRecords();
+                    writer.appendToJournal(records, journalFile);
+                    this.journalRecords += records.size();
                 }
 
-                if (saveDir.exists() == false)
+                if (hasSnapshot == false || this.journalRecords >= MAX_JOURNAL_RECORDS)
                 {
-                    if (saveDir.mkdirs() == false)
-                    {
-                        ItemScroller.logger.warn("Failed to create the recipe storage directory '{}'", saveDir.getPath());
-                        return;
-                    }
+                    writer.writeSnapshot(this.createSnapshot(), file, journalFile);
+                    this.snapshotFile = file;
+                    this.journalRecords = 0;
                 }
 
-                File fileTmp  = new File(saveDir, this.getFileName() + ".tmp");
-                File fileReal = new File(saveDir, this.getFileName());
-                FileOutputStream os = new FileOutputStream(fileTmp);
-                CompressedStreamTools.writeCompressed(this.writeToNBT(new NBTTagCompound()), os);
-                os.close();
-
-                if (fileReal.exists())
+                // Our own writes shouldn't cause a reload
+                writer.execute(new Runnable()
                 {
-                    fileReal.delete();
-                }
-
-                fileTmp.renameTo(fileReal);
-                this.dirty = false;
-            }
-            catch (Exception e)
-            {
-                ItemScroller.logger.warn("Failed to write recipes to file!", e);
+                    @Override
+                    public void run()
+                    {
+                        RecipeStorage.this.fileStamp = RecipeStorage.this.getFileStamp();
+                    }
+                });
             }
+
+            this.changedRecipes.clear();
+            this.selectionChanged = false;
+            this.dirty = false;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package fi.dy.masa.itemscroller.recipes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import fi.dy.masa.itemscroller.config.Configs;
+import fi.dy.masa.itemscroller.util.WorldUtils;
+
+/**
+ * A small LRU cache of the recipe storages of the recently used worlds and servers, keyed by the save file name.
+ * Changing dimensions or going back to a recently used server then re-uses the already read recipes,
+ * and the files are only read again if they have been changed by something else in the meantime.
+ * The storages that get evicted from the cache are saved first, if they have unsaved changes.
+ */
+public class RecipeStorageCache
+{
+    private static final RecipeStorageCache INSTANCE = new RecipeStorageCache();
+    private static final int MAX_ENTRIES = 4;
+    private static final int RECIPES_PER_PAGE = 18;
+
+    private final LinkedHashMap<String, RecipeStorage> storages = new LinkedHashMap<String, RecipeStorage>(8, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RecipeStorage> eldest)
+        {
+            if (this.size() > MAX_ENTRIES)
+            {
+                saveStorage(eldest.getValue());
+                return true;
+            }
+
+            return false;
+        }
+    };
+
+    public static RecipeStorageCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the recipe storage for the current world or server, or for the global file.
+     * The returned storage hasn't necessarily been read from the file yet, see RecipeStorage#readFromDiskIfChanged().
+     */
+    public RecipeStorage getStorage(boolean global)
+    {
+        String fileName = getFileName(global);
+        RecipeStorage storage = this.storages.get(fileName);
+
+        if (storage == null)
+        {
+            storage = new RecipeStorage(RECIPES_PER_PAGE, fileName);
+            this.storages.put(fileName, storage);
+        }
+
+        return storage;
+    }
+
+    /**
+     * Saves all the unsaved changes and empties the cache
+     */
+    public void clear()
+    {
+        for (RecipeStorage storage : this.storages.values())
+        {
+            saveStorage(storage);
+        }
+
+        this.storages.clear();
+    }
+
+    private static void saveStorage(RecipeStorage storage)
+    {
+        // This only takes the snapshot, the file is written on the background thread
+        if (Configs.craftingRecipesStoreToFile)
+        {
+            storage.writeToDisk();
+        }
+    }
+
+    private static String getFileName(boolean global)
+    {
+        String name = "recipes";
+
+        if (global == false)
+        {
+            String worldName = WorldUtils.getWorldOrServerName();
+
+            if (worldName != null)
+            {
+                name = "recipes_" + worldName;
+            }
+        }
+
+        return name;
+    }
+}
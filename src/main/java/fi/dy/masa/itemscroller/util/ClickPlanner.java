@@ -0,0 +1,339 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import net.minecraft.client.gui.inventory.GuiContainer;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.inventory.ClickType;
+import net.minecraft.inventory.Container;
+import net.minecraft.item.ItemStack;
+
+/**
+ * Collects a sequence of slot clicks on a simulated container, and then finds the shortest
+ * click sequence that results in the same final state. The alternatives that are tried are
+ * a number key swap with a hotbar slot, a drag split (QUICK_CRAFT), a double click collect (PICKUP_ALL)
+ * and the original sequence with all the redundant clicks removed.
+ */
+public class ClickPlanner
+{
+    /** Don't try to remove individual redundant clicks from longer sequences than this */
+    private static final int MAX_PRUNED_SEQUENCE_LENGTH = 64;
+
+    private final Container container;
+    private final EntityPlayer player;
+    private final SimulatedContainer simulation;
+    private final List<PlannedClick> clicks = new ArrayList<PlannedClick>();
+
+    public ClickPlanner(Container container, EntityPlayer player)
+    {
+        this.container = container;
+        this.player = player;
+        this.simulation = new SimulatedContainer(container, player);
+    }
+
+    /**
+     * Returns the simulated state after all the clicks added so far.
+     * This is meant for building the click sequence based on the predicted state.
+     */
+    public SimulatedContainer getSimulation()
+    {
+        return this.simulation;
+    }
+
+    public void addClick(int slotNum, int mouseButton, ClickType type)
+    {
+        this.clicks.add(new PlannedClick(slotNum, mouseButton, type));
+        this.simulation.clickSlot(slotNum, mouseButton, type);
+    }
+
+    public void addLeftClick(int slotNum)
+    {
+        this.addClick(slotNum, 0, ClickType.PICKUP);
+    }
+
+    public void addRightClick(int slotNum)
+    {
+        this.addClick(slotNum, 1, ClickType.PICKUP);
+    }
+
+    public int getClickCount()
+    {
+        return this.clicks.size();
+    }
+
+    /**
+     * Returns the shortest known click sequence that results in the same slot contents
+     * and cursor stack as the clicks that were added to this planner.
+     */
+    public List<PlannedClick> getOptimizedClicks()
+    {
+        List<PlannedClick> best = this.clicks;
+
+        if (best.size() <= 1)
+        {
+            return best;
+        }
+
+        best = this.getShorterValidSequence(best, this.getSwapSequence());
+        best = this.getShorterValidSequence(best, this.getPickupAllSequence());
+        best = this.getShorterValidSequence(best, this.getDragSplitSequence(false));
+        best = this.getShorterValidSequence(best, this.getDragSplitSequence(true));
+
+        if (best == this.clicks && best.size() <= MAX_PRUNED_SEQUENCE_LENGTH)
+        {
+            best = this.getSequenceWithoutRedundantClicks(best);
+        }
+
+        return best;
+    }
+
+    /**
+     * Sends the optimized click sequence to the server
+     */
+    public void execute(GuiContainer gui)
+    {
+        for (PlannedClick click : this.getOptimizedClicks())
+        {
+            InventoryUtils.clickSlot(gui, click.slotNum, click.mouseButton, click.type);
+        }
+    }
+
+    private List<PlannedClick> getShorterValidSequence(List<PlannedClick> current, List<PlannedClick> candidate)
+    {
+        if (candidate != null && candidate.size() < current.size() && this.resultsInTargetState(candidate))
+        {
+            return candidate;
+        }
+
+        return current;
+    }
+
+    private boolean resultsInTargetState(List<PlannedClick> sequence)
+    {
+        SimulatedContainer sim = new SimulatedContainer(this.container, this.player);
+
+        for (PlannedClick click : sequence)
+        {
+            if (sim.clickSlot(click.slotNum, click.mouseButton, click.type) == false)
+            {
+                return false;
+            }
+        }
+
+        return sim.hasSameContentsAs(this.simulation);
+    }
+
+    private List<PlannedClick> getSequenceWithoutRedundantClicks(List<PlannedClick> sequence)
+    {
+        List<PlannedClick> pruned = new ArrayList<PlannedClick>(sequence);
+
+        for (int i = pruned.size() - 1; i >= 0; i--)
+        {
+            PlannedClick click = pruned.remove(i);
+
+            if (this.resultsInTargetState(pruned) == false)
+            {
+                pruned.add(i, click);
+            }
+        }
+
+        return pruned;
+    }
+
+    /**
+     * If the whole stack moved from one slot into one empty slot, and one of the slots
+     * is a hotbar slot, then a single number key swap does the same thing.
+     */
+    private List<PlannedClick> getSwapSequence()
+    {
+        int[] changed = this.getActuallyChangedSlots();
+
+        if (changed.length != 2 || this.simulation.getCursorStack().isEmpty() == false)
+        {
+            return null;
+        }
+
+        int slot1 = changed[0];
+        int slot2 = changed[1];
+        int hotbar1 = this.simulation.getHotbarIndex(slot1);
+        int hotbar2 = this.simulation.getHotbarIndex(slot2);
+
+        if (hotbar1 >= 0)
+        {
+            return singleClick(slot2, hotbar1, ClickType.SWAP);
+        }
+        else if (hotbar2 >= 0)
+        {
+            return singleClick(slot1, hotbar2, ClickType.SWAP);
+        }
+
+        return null;
+    }
+
+    /**
+     * If one slot collected items from all the other changed slots, then picking up the first
+     * stack and then double clicking to collect the rest can be shorter.
+     */
+    private List<PlannedClick> getPickupAllSequence()
+    {
+        int[] changed = this.getActuallyChangedSlots();
+        int target = -1;
+        int firstSource = -1;
+
+        if (changed.length < 3 || this.simulation.getCursorStack().isEmpty() == false)
+        {
+            return null;
+        }
+
+        for (int slotNum : changed)
+        {
+            int sizeBefore = this.simulation.getSlot(slotNum).getStack().getCount();
+            int sizeAfter = this.simulation.getStack(slotNum).getCount();
+
+            if (sizeAfter > sizeBefore)
+            {
+                // Only one target slot is supported
+                if (target != -1)
+                {
+                    return null;
+                }
+
+                target = slotNum;
+            }
+            else if (firstSource == -1)
+            {
+                firstSource = slotNum;
+            }
+        }
+
+        if (target == -1 || firstSource == -1)
+        {
+            return null;
+        }
+
+        List<PlannedClick> sequence = new ArrayList<PlannedClick>();
+        int pickupSlot = this.simulation.getSlot(target).getHasStack() ? target : firstSource;
+
+        sequence.add(new PlannedClick(pickupSlot, 0, ClickType.PICKUP));
+        sequence.add(new PlannedClick(pickupSlot, 0, ClickType.PICKUP_ALL));
+        sequence.add(new PlannedClick(target, 0, ClickType.PICKUP));
+
+        return sequence;
+    }
+
+    /**
+     * If one slot gave items evenly to two or more other slots, then a drag split can be shorter.
+     */
+    private List<PlannedClick> getDragSplitSequence(boolean leaveOne)
+    {
+        int[] changed = this.getActuallyChangedSlots();
+        int source = -1;
+        IntDeque targets = new IntDeque();
+
+        if (changed.length < 3 || this.simulation.getCursorStack().isEmpty() == false)
+        {
+            return null;
+        }
+
+        for (int slotNum : changed)
+        {
+            int sizeBefore = this.simulation.getSlot(slotNum).getStack().getCount();
+            int sizeAfter = this.simulation.getStack(slotNum).getCount();
+
+            if (sizeAfter < sizeBefore)
+            {
+                if (source != -1)
+                {
+                    return null;
+                }
+
+                source = slotNum;
+            }
+            else
+            {
+                targets.add(slotNum);
+            }
+        }
+
+        if (source == -1)
+        {
+            return null;
+        }
+
+        List<PlannedClick> sequence = new ArrayList<PlannedClick>();
+        sequence.add(new PlannedClick(source, 0, ClickType.PICKUP));
+
+        if (leaveOne)
+        {
+            sequence.add(new PlannedClick(source, 1, ClickType.PICKUP));
+        }
+
+        sequence.add(new PlannedClick(-999, 0, ClickType.QUICK_CRAFT));
+
+        for (int i = 0; i < targets.size(); i++)
+        {
+            sequence.add(new PlannedClick(targets.get(i), 1, ClickType.QUICK_CRAFT));
+        }
+
+        sequence.add(new PlannedClick(-999, 2, ClickType.QUICK_CRAFT));
+
+        // Return the left over items. This is only a candidate, the simulation tells if it ends up valid.
+        sequence.add(new PlannedClick(source, 0, ClickType.PICKUP));
+
+        return sequence;
+    }
+
+    /**
+     * Returns the slots whose contents are different at the end of the click sequence,
+     * ignoring the slots that were temporarily changed and then restored.
+     */
+    private int[] getActuallyChangedSlots()
+    {
+        BitSet changed = this.simulation.getChangedSlots();
+        int[] slots = new int[changed.cardinality()];
+        int count = 0;
+
+        for (int slotNum = changed.nextSetBit(0); slotNum >= 0; slotNum = changed.nextSetBit(slotNum + 1))
+        {
+            ItemStack stackOrig = this.simulation.getSlot(slotNum).getStack();
+
+            if (ItemStack.areItemStacksEqual(stackOrig, this.simulation.getStack(slotNum)) == false)
+            {
+                slots[count++] = slotNum;
+            }
+        }
+
+        int[] arr = new int[count];
+        System.arraycopy(slots, 0, arr, 0, count);
+
+        return arr;
+    }
+
+    private static List<PlannedClick> singleClick(int slotNum, int mouseButton, ClickType type)
+    {
+        List<PlannedClick> list = new ArrayList<PlannedClick>(1);
+        list.add(new PlannedClick(slotNum, mouseButton, type));
+        return list;
+    }
+
+    public static class PlannedClick
+    {
+        public final int slotNum;
+        public final int mouseButton;
+        public final ClickType type;
+
+        public PlannedClick(int slotNum, int mouseButton, ClickType type)
+        {
+            this.slotNum = slotNum;
+            this.mouseButton = mouseButton;
+            this.type = type;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("PlannedClick: {slot: %d, button: %d, type: %s}", this.slotNum, this.mouseButton, this.type);
+        }
+    }
+}
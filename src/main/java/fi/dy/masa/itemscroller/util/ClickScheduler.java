@@ -0,0 +1,178 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.inventory.GuiContainer;
+import fi.dy.masa.itemscroller.config.Configs;
+
+/**
+ * Runs queued long running inventory operations over multiple client ticks,
+ * while keeping the number of emulated slot clicks per tick within the configured budget.
+ * The budget is checked before each task step, and the clicks that a step sends over the budget
+ * are carried over and paid back on the following ticks, so the click rate stays within the budget
+ * even for the steps that need a few more clicks than what was left for the tick.
+ */
+public class ClickScheduler
+{
+    private static final ClickScheduler INSTANCE = new ClickScheduler();
+
+    private final ArrayDeque<IClickTask> tasks = new ArrayDeque<IClickTask>();
+    private WeakReference<GuiContainer> taskGui = new WeakReference<GuiContainer>(null);
+    private int clickBudget;
+    private int clicksThisTick;
+    private int clicksTotal;
+    private boolean runningStep;
+
+    public static ClickScheduler getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds a task to the end of the queue. The task will start running on the next client tick.
+     * All the queued tasks are cancelled if the GUI gets closed or changed.
+     */
+    public void schedule(GuiContainer gui, IClickTask task)
+    {
+        if (gui != this.taskGui.get())
+        {
+            this.cancelAll();
+            this.taskGui = new WeakReference<GuiContainer>(gui);
+        }
+
+        if (this.tasks.isEmpty())
+        {
+            this.clicksTotal = 0;
+            this.updateClickBudget();
+        }
+
+        this.tasks.add(task);
+    }
+
+    public boolean isBusy()
+    {
+        return this.tasks.isEmpty() == false;
+    }
+
+    public void cancelAll()
+    {
+        this.tasks.clear();
+        this.taskGui = new WeakReference<GuiContainer>(null);
+    }
+
+    public String getProgressText()
+    {
+        IClickTask task = this.tasks.peek();
+
+        if (task != null)
+        {
+            String str = task.getProgressText() + " - " + this.clicksTotal + " clicks";
+            return this.tasks.size() > 1 ? str + " (+" + (this.tasks.size() - 1) + " queued)" : str;
+        }
+
+        return "";
+    }
+
+    /**
+     * Called for every emulated slot click, to keep track of the used budget
+     */
+    public void onClickSent()
+    {
+        this.clicksThisTick++;
+        this.clicksTotal++;
+    }
+
+    /**
+     * Returns true while a task step is being run. The operations started from a task step
+     * can do their clicks right away, as the steps are already paced by the scheduler.
+     */
+    public boolean isRunningTaskStep()
+    {
+        return this.runningStep;
+    }
+
+    /**
+     * Returns the number of clicks left in the click budget of the current tick,
+     * or Integer.MAX_VALUE if the click rate isn't limited
+     */
+    public int getRemainingClicks()
+    {
+        if (this.tasks.isEmpty())
+        {
+            this.updateClickBudget();
+        }
+
+        return this.clickBudget > 0 ? Math.max(this.clickBudget - this.clicksThisTick, 0) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of clicks sent since the current batch of tasks was scheduled
+     */
+    public int getTotalClicks()
+    {
+        return this.clicksTotal;
+    }
+
+    public boolean hasClickBudgetLeft()
+    {
+        return this.clickBudget <= 0 || this.clicksThisTick < this.clickBudget;
+    }
+
+    public void onClientTick(Minecraft mc)
+    {
+        // Carry over the clicks that went over the budget on the previous ticks
+        this.clicksThisTick = this.clickBudget > 0 ? Math.max(this.clicksThisTick - this.clickBudget, 0) : 0;
+
+        if (this.tasks.isEmpty())
+        {
+            return;
+        }
+
+        GuiContainer gui = this.taskGui.get();
+
+        if (gui == null || mc.player == null || mc.currentScreen != gui)
+        {
+            this.cancelAll();
+            return;
+        }
+
+        IClickTask task = this.tasks.peek();
+
+        while (task != null && this.hasClickBudgetLeft())
+        {
+            int clicksBefore = this.clicksThisTick;
+            boolean finished;
+
+            this.runningStep = true;
+
+            try
+            {
+                finished = task.runStep(gui);
+            }
+            finally
+            {
+                this.runningStep = false;
+            }
+
+            if (finished)
+            {
+                this.tasks.poll();
+                task = this.tasks.peek();
+            }
+            // The task didn't click anything, let it continue on the next tick
+            else if (this.clicksThisTick == clicksBefore)
+            {
+                break;
+            }
+        }
+    }
+
+    private void updateClickBudget()
+    {
+        String serverName = WorldUtils.getWorldOrServerName();
+        Integer budget = serverName != null ? Configs.CLICK_BUDGETS_PER_SERVER.get(serverName) : null;
+
+        this.clickBudget = budget != null ? budget.intValue() : Configs.clickBudgetPerTick;
+    }
+}
@@ -0,0 +1,333 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.List;
+import javax.annotation.Nullable;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.inventory.GuiContainer;
+import net.minecraft.inventory.ClickType;
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.Slot;
+import net.minecraft.inventory.SlotCrafting;
+import net.minecraft.inventory.SlotMerchantResult;
+import net.minecraft.item.ItemStack;
+import fi.dy.masa.itemscroller.recipes.CraftingHandler;
+import fi.dy.masa.itemscroller.recipes.CraftingHandler.SlotRange;
+
+/**
+ * Tracks the slot and cursor stack changes of the open container, and records them as change events
+ * into a ring buffer. The consumers keep their own sequence number, and can then only process
+ * the slots that changed since they last looked, instead of diffing the whole container.
+ * <br><br>
+ * The client side containers don't notify their IContainerListeners when a slot changes, so the slots
+ * that may have changed are marked as pending where the change happens, and only those slots are then
+ * compared against the previously seen ItemStack instances and stack sizes:
+ * <ul>
+ * <li>The server's slot updates are marked by the network hook, see NetworkEventHandler</li>
+ * <li>After a click (emulated or a manual one in the GUI) the clicked slot, the cursor, the slots
+ * that have the same items as the clicked slot or the cursor, the empty slots, and for the crafting output
+ * slots the crafting grid are marked. Those are all the slots that a vanilla click can change.</li>
+ * </ul>
+ * The pending slots are processed on the next access, and at the end of every client tick.
+ * The whole container is only re-scanned when the server re-sends all the slots,
+ * or when the changed slots can't be narrowed down.
+ */
+public class ContainerChangeTracker
+{
+    /** The slot number used in the change events for the cursor stack */
+    public static final int CURSOR_SLOT = -1;
+    private static final int BUFFER_SIZE = 512;
+    private static WeakReference<Container> lastContainer = new WeakReference<Container>(null);
+    private static ContainerChangeTracker lastTracker;
+
+    private final List<Slot> slots;
+    private final ItemStack[] lastStacks;
+    private final int[] lastSizes;
+    private ItemStack lastCursorStack = InventoryUtils.EMPTY_STACK;
+    private int lastCursorSize;
+    private final int[] changedSlots = new int[BUFFER_SIZE];
+    private final BitSet pendingSlots;
+    private boolean pendingCursor;
+    private long sequence;
+    private boolean needsUpdate;
+
+    private ContainerChangeTracker(Container container)
+    {
+        this.slots = container.inventorySlots;
+        this.lastStacks = new ItemStack[this.slots.size()];
+        this.lastSizes = new int[this.slots.size()];
+        this.pendingSlots = new BitSet(this.slots.size());
+
+        for (int slotNum = 0; slotNum < this.lastStacks.length; slotNum++)
+        {
+            ItemStack stack = this.slots.get(slotNum).getStack();
+            this.lastStacks[slotNum] = stack;
+            this.lastSizes[slotNum] = InventoryUtils.getStackSize(stack);
+        }
+
+        this.lastCursorStack = getCursorStack();
+        this.lastCursorSize = InventoryUtils.getStackSize(this.lastCursorStack);
+    }
+
+    /**
+     * Returns the up-to-date tracker for the given container. A new tracker is created
+     * if the container or its slot list changes, which the consumers see as a different tracker instance.
+     */
+    public static ContainerChangeTracker getFor(Container container)
+    {
+        ContainerChangeTracker tracker = lastTracker;
+
+        if (tracker == null || lastContainer.get() != container ||
+            tracker.slots != container.inventorySlots || tracker.lastStacks.length != container.inventorySlots.size())
+        {
+            tracker = new ContainerChangeTracker(container);
+            lastTracker = tracker;
+            lastContainer = new WeakReference<Container>(container);
+        }
+        else
+        {
+            tracker.processPendingChanges();
+        }
+
+        return tracker;
+    }
+
+    /**
+     * Processes the pending changes of the tracked container. This is called at the end of every client tick,
+     * so that the changes from the server get recorded even if nothing accesses the tracker.
+     */
+    public static void onClientTick()
+    {
+        ContainerChangeTracker tracker = lastTracker;
+
+        if (tracker != null && lastContainer.get() != null)
+        {
+            tracker.processPendingChanges();
+        }
+    }
+
+    /**
+     * Marks the tracker to re-scan the whole container on the next access.
+     * This should only be called when the changed slots aren't known.
+     */
+    public static void scheduleUpdate()
+    {
+        if (lastTracker != null)
+        {
+            lastTracker.needsUpdate = true;
+        }
+    }
+
+    /**
+     * Marks a slot (or the cursor stack, for window id -1) that the server has updated.
+     * Updates for other windows, like the player inventory updates by the inventory index,
+     * can't be mapped to the open container's slots, so they cause a full re-scan.
+     */
+    public static void onServerSlotUpdate(int windowId, int slotNum)
+    {
+        ContainerChangeTracker tracker = lastTracker;
+        Container container = lastContainer.get();
+
+        if (tracker == null || container == null)
+        {
+            return;
+        }
+
+        if (windowId == -1)
+        {
+            tracker.pendingCursor = true;
+        }
+        else if (windowId == container.windowId && slotNum >= 0 && slotNum < tracker.lastStacks.length)
+        {
+            tracker.pendingSlots.set(slotNum);
+        }
+        else
+        {
+            tracker.needsUpdate = true;
+        }
+    }
+
+    /**
+     * Records the changes caused by a click in the given GUI.
+     * @param slot the clicked slot, or null for clicks outside of the slots
+     * @param type the click type, or null if it's not known (for the manual clicks and key presses in the GUI)
+     */
+    public static void onSlotClicked(GuiContainer gui, @Nullable Slot slot, int slotNum, @Nullable ClickType type)
+    {
+        Container container = gui.inventorySlots;
+
+        // This processes the earlier pending changes, and brings the index up to date with the tracker.
+        // The index doesn't know about the changes from this click yet, so it still has the slot contents from before the click.
+        ContainerIndex index = ContainerIndex.getFor(container);
+        ContainerChangeTracker tracker = lastTracker;
+
+        if (tracker == null || lastContainer.get() != container)
+        {
+            return;
+        }
+
+        tracker.pendingCursor = true;
+        tracker.pendingSlots.or(index.getEmptySlots());
+        tracker.pendingSlots.or(index.getSlotsWithItem(tracker.lastCursorStack));
+        tracker.pendingSlots.or(index.getSlotsWithItem(getCursorStack()));
+
+        if (slot != null)
+        {
+            if (index.containsSlot(slot))
+            {
+                tracker.pendingSlots.set(slotNum);
+                tracker.pendingSlots.or(index.getSlotsWithItem(tracker.lastStacks[slotNum]));
+                tracker.pendingSlots.or(index.getSlotsWithItem(slot.getStack()));
+
+                SlotRange range = CraftingHandler.getCraftingGridSlots(gui, slot);
+
+                if (range != null)
+                {
+                    tracker.pendingSlots.set(range.getFirst(), range.getLast() + 1);
+                }
+                // Taking the output consumes the inputs, which are unknown for the undefined output slots
+                else if (slot instanceof SlotCrafting || slot instanceof SlotMerchantResult)
+                {
+                    tracker.needsUpdate = true;
+                }
+            }
+            // The wrapper slots of the creative inventory don't map to the container's slots
+            else
+            {
+                tracker.needsUpdate = true;
+            }
+        }
+
+        // The number keys swap the slot with a hotbar slot, and the swap hand key with the offhand slot
+        if (type == null || type == ClickType.SWAP)
+        {
+            tracker.pendingSlots.or(index.getHotbarSlots());
+            tracker.pendingSlots.or(index.getOffhandSlots());
+        }
+
+        tracker.processPendingChanges();
+    }
+
+    /**
+     * Records the changes caused by a manual click or a key press in the given GUI,
+     * after the GUI has handled the input.
+     */
+    public static void onGuiInput(GuiContainer gui)
+    {
+        Slot slot = gui.getSlotUnderMouse();
+        onSlotClicked(gui, slot, slot != null ? slot.slotNumber : -999, null);
+    }
+
+    public static void clear()
+    {
+        lastTracker = null;
+        lastContainer = new WeakReference<Container>(null);
+    }
+
+    /**
+     * Returns the sequence number of the latest change event.
+     * A consumer should store this after it has processed the changes.
+     */
+    public long getSequence()
+    {
+        return this.sequence;
+    }
+
+    /**
+     * Adds the slot numbers that have changed after the given sequence number to the output list.
+     * The cursor stack changes are included as CURSOR_SLOT. The same slot may be listed more than once.
+     * @return false if the changes are no longer all available, in which case the consumer needs to re-scan everything
+     */
+    public boolean getChangesSince(long sequence, IntDeque changesOut)
+    {
+        if (this.sequence - sequence > BUFFER_SIZE || sequence > this.sequence)
+        {
+            return false;
+        }
+
+        for (long seq = sequence; seq < this.sequence; seq++)
+        {
+            changesOut.add(this.changedSlots[(int) (seq % BUFFER_SIZE)]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if the given slot (or CURSOR_SLOT) has changed after the given sequence number.
+     * If the changes are no longer all available, this returns true.
+     */
+    public boolean hasChangedSince(long sequence, int slotNum)
+    {
+        if (this.sequence - sequence > BUFFER_SIZE || sequence > this.sequence)
+        {
+            return true;
+        }
+
+        for (long seq = sequence; seq < this.sequence; seq++)
+        {
+            if (this.changedSlots[(int) (seq % BUFFER_SIZE)] == slotNum)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Compares the pending slots (or all the slots, if a full update was requested)
+     * and the cursor stack to the previously seen state, and records the changes
+     */
+    private void processPendingChanges()
+    {
+        if (this.needsUpdate)
+        {
+            this.pendingSlots.set(0, this.lastStacks.length);
+            this.pendingCursor = true;
+            this.needsUpdate = false;
+        }
+
+        for (int slotNum = this.pendingSlots.nextSetBit(0); slotNum >= 0; slotNum = this.pendingSlots.nextSetBit(slotNum + 1))
+        {
+            ItemStack stack = this.slots.get(slotNum).getStack();
+
+            // The stack size can be modified in place, so it must be checked separately
+            if (stack != this.lastStacks[slotNum] || InventoryUtils.getStackSize(stack) != this.lastSizes[slotNum])
+            {
+                this.lastStacks[slotNum] = stack;
+                this.lastSizes[slotNum] = InventoryUtils.getStackSize(stack);
+                this.addChange(slotNum);
+            }
+        }
+
+        this.pendingSlots.clear();
+
+        if (this.pendingCursor)
+        {
+            ItemStack stackCursor = getCursorStack();
+
+            if (stackCursor != this.lastCursorStack || InventoryUtils.getStackSize(stackCursor) != this.lastCursorSize)
+            {
+                this.lastCursorStack = stackCursor;
+                this.lastCursorSize = InventoryUtils.getStackSize(stackCursor);
+                this.addChange(CURSOR_SLOT);
+            }
+
+            this.pendingCursor = false;
+        }
+    }
+
+    private void addChange(int slotNum)
+    {
+        this.changedSlots[(int) (this.sequence % BUFFER_SIZE)] = slotNum;
+        this.sequence++;
+    }
+
+    private static ItemStack getCursorStack()
+    {
+        Minecraft mc = Minecraft.getMinecraft();
+        return mc.player != null ? mc.player.inventory.getItemStack() : InventoryUtils.EMPTY_STACK;
+    }
+}
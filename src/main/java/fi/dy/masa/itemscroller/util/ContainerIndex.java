@@ -0,0 +1,523 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import net.minecraft.entity.player.InventoryPlayer;
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.InventoryCraftResult;
+import net.minecraft.inventory.Slot;
+import net.minecraft.inventory.SlotCrafting;
+import net.minecraft.inventory.SlotFurnaceOutput;
+import net.minecraft.inventory.SlotMerchantResult;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.items.IItemHandler;
+import net.minecraftforge.items.SlotItemHandler;
+import net.minecraftforge.items.wrapper.PlayerInvWrapper;
+import net.minecraftforge.items.wrapper.PlayerMainInvWrapper;
+
+/**
+ * An index of the currently open container's slot contents, which maps each ItemType
+ * to the slots that have that item, and keeps track of the empty slots and which inventory each slot belongs to.
+ * The inventory partition is computed once per container, so that the same-inventory checks
+ * are just int compares, instead of Slot.isSameInventory() calls for every slot pair.
+ * The index is updated incrementally, by re-indexing only the slots that the ContainerChangeTracker
+ * reports as changed. This also catches the slots changed indirectly by a click, for example
+ * the crafting output slot, or the input slots when taking the output, and the server side changes.
+ * The total item count per ItemType is also kept up to date along with the slot index.
+ * The totals only include the slots whose items are actually available for crafting, see isCountedSlot().
+ */
+public class ContainerIndex
+{
+    private static final BitSet EMPTY_BITS = new BitSet();
+    private static final int SECTION_NONE = 0;
+    private static final int SECTION_HOTBAR = 1;
+    private static final int SECTION_MAIN = 2;
+    private static final int SECTION_OFFHAND = 3;
+    private static WeakReference<Container> lastContainer = new WeakReference<Container>(null);
+    private static ContainerIndex lastIndex;
+    private static WeakReference<List<Slot>> membershipList = new WeakReference<List<Slot>>(null);
+    private static int membershipListSize = -1;
+    private static Set<Slot> membership = Collections.emptySet();
+
+    private final Container container;
+    private final List<Slot> slots;
+    private final int slotCount;
+    private final ItemType[] slotTypes;
+    private final int[] slotSizes;
+    private final Map<ItemType, BitSet> slotsByType = new HashMap<ItemType, BitSet>();
+    private final Map<ItemType, Integer> countsByType = new HashMap<ItemType, Integer>();
+    private final BitSet emptySlots;
+    private final BitSet nonEmptySlots;
+    private final int[] inventoryIds;
+    private final int[] sectionIds;
+    private final List<BitSet> inventorySlots = new ArrayList<BitSet>();
+    private final BitSet hotbarSlots;
+    private final BitSet mainSlots;
+    private final BitSet offhandSlots;
+    private final BitSet countedSlots;
+    private final IntDeque changedSlots = new IntDeque();
+    private final ContainerChangeTracker tracker;
+    private long lastSeenChange;
+    private int countVersion;
+    private boolean dirty = true;
+
+    private ContainerIndex(Container container, ContainerChangeTracker tracker)
+    {
+        this.container = container;
+        this.tracker = tracker;
+        this.slots = container.inventorySlots;
+        this.slotCount = this.slots.size();
+        this.slotTypes = new ItemType[this.slotCount];
+        this.slotSizes = new int[this.slotCount];
+        this.emptySlots = new BitSet(this.slotCount);
+        this.nonEmptySlots = new BitSet(this.slotCount);
+        this.inventoryIds = new int[this.slotCount];
+        this.sectionIds = new int[this.slotCount];
+        this.hotbarSlots = new BitSet(this.slotCount);
+        this.mainSlots = new BitSet(this.slotCount);
+        this.offhandSlots = new BitSet(this.slotCount);
+        this.countedSlots = new BitSet(this.slotCount);
+        this.buildInventoryIds();
+    }
+
+    /**
+     * Returns the up-to-date index for the given container.
+     * The index is cached for the last used container, and it is re-created
+     * if the container, its slot list or its slot count changes.
+     */
+    public static ContainerIndex getFor(Container container)
+    {
+        ContainerIndex index = lastIndex;
+        ContainerChangeTracker tracker = ContainerChangeTracker.getFor(container);
+
+        // A new tracker means that the container or its slot list has changed
+        if (index == null || lastContainer.get() != container || index.tracker != tracker)
+        {
+            index = new ContainerIndex(container, tracker);
+            lastIndex = index;
+            lastContainer = new WeakReference<Container>(container);
+        }
+
+        if (index.dirty)
+        {
+            index.rebuild();
+        }
+        else if (tracker.getSequence() != index.lastSeenChange)
+        {
+            index.applyChanges();
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the cached index, if both of the given slots belong to the indexed container.
+     * This doesn't refresh the item index, so it's only meant for the inventory partition lookups.
+     * The index is rejected if the container's slot list has been replaced or resized since it was built,
+     * for example by switching the creative inventory tabs.
+     */
+    @Nullable
+    static ContainerIndex getCachedIndexFor(Slot slot1, Slot slot2)
+    {
+        ContainerIndex index = lastIndex;
+
+        if (index != null && index.isUpToDateSlotList() && index.containsSlot(slot1) && index.containsSlot(slot2))
+        {
+            return index;
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes the cached index, so that it doesn't keep the closed container alive
+     */
+    public static void clear()
+    {
+        lastIndex = null;
+        lastContainer = new WeakReference<Container>(null);
+        ContainerChangeTracker.clear();
+        membershipList = new WeakReference<List<Slot>>(null);
+        membershipListSize = -1;
+        membership = Collections.emptySet();
+    }
+
+    /**
+     * Checks if the given slot instance is in the container's slot list, without a linear search.
+     * Normally the slot is at the index of its slotNumber, but for example the creative inventory's
+     * player inventory tab uses wrapper slots with invalid slot numbers. For those this uses an identity set
+     * of the slots, which is re-built when the slot list or its size changes.
+     */
+    public static boolean isSlotInContainer(Container container, Slot slot)
+    {
+        List<Slot> slots = container.inventorySlots;
+        int slotNum = slot.slotNumber;
+
+        if (slotNum >= 0 && slotNum < slots.size() && slots.get(slotNum) == slot)
+        {
+            return true;
+        }
+
+        if (membershipList.get() != slots || membershipListSize != slots.size())
+        {
+            membership = Collections.newSetFromMap(new IdentityHashMap<Slot, Boolean>(slots.size() * 2));
+            membership.addAll(slots);
+            membershipList = new WeakReference<List<Slot>>(slots);
+            membershipListSize = slots.size();
+        }
+
+        return membership.contains(slot);
+    }
+
+    public int getSlotCount()
+    {
+        return this.slotCount;
+    }
+
+    /**
+     * Returns the slots that have items identical to stackReference (ignoring the stack size).
+     * The returned BitSet must not be modified.
+     */
+    public BitSet getSlotsWithItem(ItemStack stackReference)
+    {
+        if (InventoryUtils.isStackEmpty(stackReference))
+        {
+            return EMPTY_BITS;
+        }
+
+        BitSet slots = this.slotsByType.get(new ItemType(stackReference));
+        return slots != null ? slots : EMPTY_BITS;
+    }
+
+    /**
+     * Returns the total number of the given items in the container, not counting
+     * the output slots and the armor slots (see isCountedSlot())
+     */
+    public int getItemCount(ItemType type)
+    {
+        Integer count = this.countsByType.get(type);
+        return count != null ? count.intValue() : 0;
+    }
+
+    /**
+     * Returns a number that changes whenever any of the item counts change.
+     * This can be used to only re-compute things derived from the counts when something has changed.
+     */
+    public int getCountVersion()
+    {
+        return this.countVersion;
+    }
+
+    /**
+     * Returns the empty slots. The returned BitSet must not be modified.
+     */
+    public BitSet getEmptySlots()
+    {
+        return this.emptySlots;
+    }
+
+    /**
+     * Returns the slots that have any items in them. The returned BitSet must not be modified.
+     */
+    public BitSet getNonEmptySlots()
+    {
+        return this.nonEmptySlots;
+    }
+
+    /**
+     * Returns the player's hotbar slots in this container. The returned BitSet must not be modified.
+     */
+    public BitSet getHotbarSlots()
+    {
+        return this.hotbarSlots;
+    }
+
+    /**
+     * Returns the player's offhand slot in this container, if any. The returned BitSet must not be modified.
+     */
+    public BitSet getOffhandSlots()
+    {
+        return this.offhandSlots;
+    }
+
+    /**
+     * Returns true if the given slot is the slot with that slot number in the indexed container
+     */
+    public boolean containsSlot(Slot slot)
+    {
+        List<Slot> slots = this.container.inventorySlots;
+        int slotNum = slot.slotNumber;
+        return slotNum >= 0 && slotNum < this.slotCount && slotNum < slots.size() && slots.get(slotNum) == slot;
+    }
+
+    private boolean isUpToDateSlotList()
+    {
+        return this.slots == this.container.inventorySlots && this.slotCount == this.slots.size();
+    }
+
+    /**
+     * Returns all the slots in the same inventory as the given slot. The returned BitSet must not be modified.
+     */
+    public BitSet getSlotsInSameInventory(int slotNum)
+    {
+        return this.inventorySlots.get(this.inventoryIds[slotNum]);
+    }
+
+    /**
+     * Returns a new BitSet of all the slots that are considered to be in the same inventory
+     * as the given slot, optionally treating the player's hotbar and main inventory as separate inventories.
+     */
+    public BitSet getSlotsInSameInventory(int slotNum, boolean treatHotbarAsDifferent)
+    {
+        BitSet slots = (BitSet) this.getSlotsInSameInventory(slotNum).clone();
+        int section = this.sectionIds[slotNum];
+
+        if (treatHotbarAsDifferent && (section == SECTION_HOTBAR || section == SECTION_MAIN))
+        {
+            BitSet sections = (BitSet) (section == SECTION_HOTBAR ? this.hotbarSlots : this.mainSlots).clone();
+            sections.or(this.offhandSlots);
+            slots.and(sections);
+        }
+
+        return slots;
+    }
+
+    public boolean areSlotsInSameInventory(int slotNum1, int slotNum2)
+    {
+        return this.inventoryIds[slotNum1] == this.inventoryIds[slotNum2];
+    }
+
+    public boolean areSlotsInSameInventory(int slotNum1, int slotNum2, boolean treatHotbarAsDifferent)
+    {
+        if (this.inventoryIds[slotNum1] != this.inventoryIds[slotNum2])
+        {
+            return false;
+        }
+
+        if (treatHotbarAsDifferent)
+        {
+            int section1 = this.sectionIds[slotNum1];
+            int section2 = this.sectionIds[slotNum2];
+            // Don't ever treat the offhand slot as a different inventory
+            return section1 == section2 || section1 == SECTION_OFFHAND || section2 == SECTION_OFFHAND;
+        }
+
+        return true;
+    }
+
+    private void buildInventoryIds()
+    {
+        List<Slot> representatives = new ArrayList<Slot>();
+
+        for (int slotNum = 0; slotNum < this.slotCount; slotNum++)
+        {
+            Slot slot = this.slots.get(slotNum);
+            int id = -1;
+
+            for (int i = 0; i < representatives.size(); i++)
+            {
+                if (slot.isSameInventory(representatives.get(i)))
+                {
+                    id = i;
+                    break;
+                }
+            }
+
+            if (id == -1)
+            {
+                id = representatives.size();
+                representatives.add(slot);
+                this.inventorySlots.add(new BitSet(this.slotCount));
+            }
+
+            this.inventoryIds[slotNum] = id;
+            this.inventorySlots.get(id).set(slotNum);
+            this.sectionIds[slotNum] = getPlayerInventorySection(slot);
+
+            switch (this.sectionIds[slotNum])
+            {
+                case SECTION_HOTBAR:    this.hotbarSlots.set(slotNum);  break;
+                case SECTION_MAIN:      this.mainSlots.set(slotNum);    break;
+                case SECTION_OFFHAND:   this.offhandSlots.set(slotNum); break;
+                default:
+            }
+
+            if (isCountedSlot(slot))
+            {
+                this.countedSlots.set(slotNum);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the items in the slot are included in the item totals.
+     * The output slots (crafting, furnace and villager trade outputs) are excluded, as their items
+     * don't exist until they are taken, and the crafting output is just a preview of the grid's recipe.
+     * The worn armor is excluded, as it's not something that should get used up as ingredients.
+     * The crafting grid slots are included, as the crafting operations first move those items
+     * back to the inventory, and then use them like any other items.
+     */
+    private static boolean isCountedSlot(Slot slot)
+    {
+        if (slot instanceof SlotCrafting || slot instanceof SlotFurnaceOutput || slot instanceof SlotMerchantResult ||
+            slot.inventory instanceof InventoryCraftResult)
+        {
+            return false;
+        }
+
+        if (slot.inventory instanceof InventoryPlayer)
+        {
+            int index = slot.getSlotIndex();
+            return index < 36 || index > 39;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns which part of the player's inventory the slot belongs to, or SECTION_NONE
+     * if the slot isn't a player inventory slot. The Forge item handler wrappers
+     * of the player inventory use the same slot indices as InventoryPlayer.
+     */
+    private static int getPlayerInventorySection(Slot slot)
+    {
+        boolean isPlayerInventory = slot.inventory instanceof InventoryPlayer;
+
+        if (isPlayerInventory == false && slot instanceof SlotItemHandler)
+        {
+            IItemHandler handler = ((SlotItemHandler) slot).getItemHandler();
+            isPlayerInventory = handler instanceof PlayerInvWrapper || handler instanceof PlayerMainInvWrapper;
+        }
+
+        if (isPlayerInventory)
+        {
+            int index = slot.getSlotIndex();
+            return index == 40 ? SECTION_OFFHAND : (index < 9 ? SECTION_HOTBAR : SECTION_MAIN);
+        }
+
+        return SECTION_NONE;
+    }
+
+    private void rebuild()
+    {
+        this.slotsByType.clear();
+        this.countsByType.clear();
+        this.emptySlots.clear();
+        this.nonEmptySlots.clear();
+
+        for (int slotNum = 0; slotNum < this.slotCount; slotNum++)
+        {
+            this.slotTypes[slotNum] = null;
+            this.addSlot(slotNum);
+        }
+
+        this.dirty = false;
+        this.lastSeenChange = this.tracker.getSequence();
+        this.countVersion++;
+    }
+
+    private void applyChanges()
+    {
+        this.changedSlots.clear();
+
+        if (this.tracker.getChangesSince(this.lastSeenChange, this.changedSlots) == false)
+        {
+            this.rebuild();
+            return;
+        }
+
+        for (int i = 0; i < this.changedSlots.size(); i++)
+        {
+            int slotNum = this.changedSlots.get(i);
+
+            if (slotNum != ContainerChangeTracker.CURSOR_SLOT)
+            {
+                this.updateSlot(slotNum);
+            }
+        }
+
+        this.lastSeenChange = this.tracker.getSequence();
+        this.countVersion++;
+    }
+
+    private void updateSlot(int slotNum)
+    {
+        ItemType typeOld = this.slotTypes[slotNum];
+
+        if (typeOld != null)
+        {
+            BitSet slots = this.slotsByType.get(typeOld);
+
+            if (slots != null)
+            {
+                slots.clear(slotNum);
+            }
+
+            if (this.countedSlots.get(slotNum))
+            {
+                this.addCount(typeOld, -this.slotSizes[slotNum]);
+            }
+
+            this.slotTypes[slotNum] = null;
+            this.slotSizes[slotNum] = 0;
+        }
+
+        this.addSlot(slotNum);
+    }
+
+    private void addSlot(int slotNum)
+    {
+        ItemStack stack = this.slots.get(slotNum).getStack();
+
+        if (InventoryUtils.isStackEmpty(stack))
+        {
+            this.emptySlots.set(slotNum);
+            this.nonEmptySlots.clear(slotNum);
+        }
+        else
+        {
+            ItemType type = ItemType.getCanonical(stack);
+            BitSet slots = this.slotsByType.get(type);
+
+            if (slots == null)
+            {
+                slots = new BitSet(this.slotCount);
+                this.slotsByType.put(type, slots);
+            }
+
+            slots.set(slotNum);
+            this.slotTypes[slotNum] = type;
+            this.slotSizes[slotNum] = InventoryUtils.getStackSize(stack);
+
+            if (this.countedSlots.get(slotNum))
+            {
+                this.addCount(type, this.slotSizes[slotNum]);
+            }
+
+            this.emptySlots.clear(slotNum);
+            this.nonEmptySlots.set(slotNum);
+        }
+    }
+
+    private void addCount(ItemType type, int amount)
+    {
+        int count = this.getItemCount(type) + amount;
+
+        if (count > 0)
+        {
+            this.countsByType.put(type, count);
+        }
+        else
+        {
+            this.countsByType.remove(type);
+        }
+    }
+}
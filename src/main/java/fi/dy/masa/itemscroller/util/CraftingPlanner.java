@@ -0,0 +1,333 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.Slot;
+import net.minecraft.item.ItemStack;
+import fi.dy.masa.itemscroller.recipes.CraftingHandler.SlotRange;
+import fi.dy.masa.itemscroller.recipes.CraftingRecipe;
+
+/**
+ * Works out up front how many times a recipe can be crafted, based on the available ingredients
+ * in the grid and in the other inventories, and on the space available for the crafted items.
+ * The space counts the slots that get emptied as the ingredients are used up, in the order the grid fill uses them,
+ * and the space taken by the container items that the ingredients leave behind.
+ * The crafting is then done in batches, where each batch is one grid fill and one shift click
+ * on the output slot, and the number of batches is known before any clicks are sent.
+ */
+public class CraftingPlanner
+{
+    private static final Comparator<Slot> LARGEST_FIRST = new Comparator<Slot>()
+    {
+        @Override
+        public int compare(Slot slot1, Slot slot2)
+        {
+            int size1 = InventoryUtils.getStackSize(slot1.getStack());
+            int size2 = InventoryUtils.getStackSize(slot2.getStack());
+            return size1 != size2 ? Integer.compare(size2, size1) : Integer.compare(slot1.slotNumber, slot2.slotNumber);
+        }
+    };
+
+    private final CraftingRecipe recipe;
+    private final Container container;
+    private final Slot outputSlot;
+    private final Slot gridFirstSlot;
+    private final SlotRange range;
+    private int maxCrafts;
+    private int batchSize;
+
+    public CraftingPlanner(CraftingRecipe recipe, Container container, Slot outputSlot, SlotRange range)
+    {
+        this.recipe = recipe;
+        this.container = container;
+        this.outputSlot = outputSlot;
+        this.gridFirstSlot = container.getSlot(range.getFirst());
+        this.range = range;
+        this.calculate();
+    }
+
+    /**
+     * @return the maximum number of crafts possible with the current ingredients and output space
+     */
+    public int getMaxCrafts()
+    {
+        return this.maxCrafts;
+    }
+
+    /**
+     * @return the maximum number of crafts done by one grid fill and one shift click
+     */
+    public int getBatchSize()
+    {
+        return this.batchSize;
+    }
+
+    public int getBatchCount()
+    {
+        return this.batchSize > 0 ? (this.maxCrafts + this.batchSize - 1) / this.batchSize : 0;
+    }
+
+    /**
+     * Returns the number of crafts that the current grid contents allow, ie. the smallest
+     * matching stack size in the recipe's grid slots, or 0 if some slot doesn't match.
+     */
+    public int getCraftsInGrid()
+    {
+        ItemStack[] items = this.recipe.getRecipeItems();
+        int numSlots = this.container.inventorySlots.size();
+        int crafts = Integer.MAX_VALUE;
+
+        for (int i = 0, slotNum = this.range.getFirst(); i < items.length; i++, slotNum++)
+        {
+            if (InventoryUtils.isStackEmpty(items[i]) == false)
+            {
+                ItemStack stack = slotNum < numSlots ? this.container.getSlot(slotNum).getStack() : InventoryUtils.EMPTY_STACK;
+
+                if (InventoryUtils.areStacksEqual(stack, items[i]) == false)
+                {
+                    return 0;
+                }
+
+                crafts = Math.min(crafts, InventoryUtils.getStackSize(stack));
+            }
+        }
+
+        return crafts != Integer.MAX_VALUE ? crafts : 0;
+    }
+
+    private void calculate()
+    {
+        Map<ItemType, IntDeque> ingredientSlots = this.recipe.getSlotsPerItem();
+        ItemStack result = this.recipe.getResult();
+
+        if (ingredientSlots.isEmpty() || InventoryUtils.isStackEmpty(result))
+        {
+            return;
+        }
+
+        ContainerIndex index = ContainerIndex.getFor(this.container);
+        int maxCrafts = Integer.MAX_VALUE;
+        int batchSize = Integer.MAX_VALUE;
+        List<IngredientSources> ingredients = new ArrayList<IngredientSources>();
+
+        for (Map.Entry<ItemType, IntDeque> entry : ingredientSlots.entrySet())
+        {
+            ItemStack ingredient = entry.getKey().getStack();
+            IngredientSources sources = this.getIngredientSources(index, ingredient, entry.getValue().size(), result);
+            ingredients.add(sources);
+            maxCrafts = Math.min(maxCrafts, sources.available / sources.perCraft);
+            batchSize = Math.min(batchSize, this.getGridSlotLimit(entry.getValue(), ingredient));
+        }
+
+        // Find the largest craft count whose results fit into the output space. The used up ingredient stacks
+        // free up their slots for the results, and the container items left behind by the ingredients take up space.
+        // The room isn't monotonic in the craft count, but the search only ever accepts craft counts that fit.
+        int baseRoom = this.getOutputRoom(result);
+        int resultSize = Math.max(1, InventoryUtils.getStackSize(result));
+        int low = 0;
+        int high = maxCrafts;
+
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            long room = baseRoom;
+
+            for (IngredientSources sources : ingredients)
+            {
+                room += sources.getRoomChange(mid, result.getMaxStackSize());
+            }
+
+            if (room >= (long) mid * resultSize)
+            {
+                low = mid;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+
+        this.maxCrafts = low;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Collects the ingredient's source slots in the order that the grid fill uses them up:
+     * the items already in the grid first, and then the other inventories' stacks, largest first, like SourceSlotQueue.
+     * For each source slot the result room that it frees up when it gets emptied is recorded,
+     * which is 0 for the slots that the crafted items can't go into.
+     */
+    private IngredientSources getIngredientSources(ContainerIndex index, ItemStack ingredient, int perCraft, ItemStack result)
+    {
+        BitSet slots = index.getSlotsWithItem(ingredient);
+        List<Slot> sourceSlots = new ArrayList<Slot>();
+        IngredientSources sources = new IngredientSources(ingredient, perCraft);
+
+        for (int slotNum = slots.nextSetBit(0); slotNum >= 0; slotNum = slots.nextSetBit(slotNum + 1))
+        {
+            Slot slot = this.container.getSlot(slotNum);
+            int size = InventoryUtils.getStackSize(slot.getStack());
+
+            if (this.range.contains(slotNum))
+            {
+                sources.inGrid += size;
+                sources.available += size;
+            }
+            else if (InventoryUtils.areSlotsInSameInventory(slot, this.gridFirstSlot) == false)
+            {
+                sourceSlots.add(slot);
+                sources.available += size;
+            }
+        }
+
+        Collections.sort(sourceSlots, LARGEST_FIRST);
+
+        sources.sizes = new int[sourceSlots.size()];
+        sources.freedRoom = new int[sourceSlots.size()];
+
+        for (int i = 0; i < sourceSlots.size(); i++)
+        {
+            Slot slot = sourceSlots.get(i);
+            sources.sizes[i] = InventoryUtils.getStackSize(slot.getStack());
+
+            if (this.isOutputSlot(slot) && slot.isItemValid(result))
+            {
+                sources.freedRoom[i] = Math.min(result.getMaxStackSize(), slot.getItemStackLimit(result));
+            }
+        }
+
+        return sources;
+    }
+
+    /**
+     * Returns the number of the given items that can be used for crafting in the given grid,
+     * ie. the items in the other inventories and the items already in the grid.
+     */
+    public static int countAvailableItems(Container container, ContainerIndex index, SlotRange range, ItemStack ingredient)
+    {
+        BitSet slots = index.getSlotsWithItem(ingredient);
+        Slot gridFirstSlot = container.getSlot(range.getFirst());
+        int count = 0;
+
+        for (int slotNum = slots.nextSetBit(0); slotNum >= 0; slotNum = slots.nextSetBit(slotNum + 1))
+        {
+            Slot slot = container.getSlot(slotNum);
+
+            // The items from other inventories get moved into the grid, and the ones already in the grid can be used directly
+            if (InventoryUtils.areSlotsInSameInventory(slot, gridFirstSlot) == false || range.contains(slotNum))
+            {
+                count += InventoryUtils.getStackSize(slot.getStack());
+            }
+        }
+
+        return count;
+    }
+
+    private int getGridSlotLimit(IntDeque recipeSlots, ItemStack ingredient)
+    {
+        int numSlots = this.container.inventorySlots.size();
+        int limit = ingredient.getMaxStackSize();
+
+        for (int i = 0; i < recipeSlots.size(); i++)
+        {
+            int slotNum = this.range.getFirst() + recipeSlots.get(i);
+
+            if (slotNum < numSlots)
+            {
+                limit = Math.min(limit, this.container.getSlot(slotNum).getItemStackLimit(ingredient));
+            }
+        }
+
+        return limit;
+    }
+
+    /**
+     * Returns the number of result items that currently fit into the slots outside of the crafting inventories
+     */
+    private int getOutputRoom(ItemStack result)
+    {
+        int room = 0;
+        int maxSize = result.getMaxStackSize();
+
+        for (Slot slot : this.container.inventorySlots)
+        {
+            if (this.isOutputSlot(slot) == false)
+            {
+                continue;
+            }
+
+            ItemStack stack = slot.getStack();
+
+            if (InventoryUtils.isStackEmpty(stack))
+            {
+                if (slot.isItemValid(result))
+                {
+                    room += Math.min(maxSize, slot.getItemStackLimit(result));
+                }
+            }
+            else if (InventoryUtils.areStacksEqual(stack, result))
+            {
+                room += Math.max(0, Math.min(maxSize, slot.getItemStackLimit(stack)) - InventoryUtils.getStackSize(stack));
+            }
+        }
+
+        return room;
+    }
+
+    /**
+     * Returns true if the crafted items can end up in the given slot, ie. if it's outside of the crafting inventories
+     */
+    private boolean isOutputSlot(Slot slot)
+    {
+        return InventoryUtils.areSlotsInSameInventory(slot, this.gridFirstSlot) == false &&
+               InventoryUtils.areSlotsInSameInventory(slot, this.outputSlot) == false;
+    }
+
+    private static class IngredientSources
+    {
+        private final int perCraft;
+        private final ItemStack containerItem;
+        private int available;
+        private int inGrid;
+        private int[] sizes;
+        private int[] freedRoom;
+
+        private IngredientSources(ItemStack ingredient, int perCraft)
+        {
+            this.perCraft = perCraft;
+            this.containerItem = ingredient.getItem().hasContainerItem(ingredient) ?
+                    ingredient.getItem().getContainerItem(ingredient) : InventoryUtils.EMPTY_STACK;
+        }
+
+        /**
+         * Returns how much the result room changes when this ingredient is used for the given number of crafts:
+         * the room of the source slots that get emptied, minus the slots taken by the container items
+         * (like empty buckets) that get moved out of the grid.
+         */
+        private long getRoomChange(int crafts, int resultMaxStackSize)
+        {
+            long used = (long) crafts * this.perCraft;
+            long needed = used - this.inGrid;
+            long room = 0;
+
+            for (int i = 0; i < this.sizes.length && needed >= this.sizes[i]; i++)
+            {
+                needed -= this.sizes[i];
+                room += this.freedRoom[i];
+            }
+
+            if (InventoryUtils.isStackEmpty(this.containerItem) == false)
+            {
+                int containerMax = Math.max(1, this.containerItem.getMaxStackSize());
+                room -= (used + containerMax - 1) / containerMax * resultMaxStackSize;
+            }
+
+            return room;
+        }
+    }
+}
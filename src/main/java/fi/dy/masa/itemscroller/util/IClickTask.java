@@ -0,0 +1,23 @@
+package fi.dy.masa.itemscroller.util;
+
+import net.minecraft.client.gui.inventory.GuiContainer;
+
+/**
+ * A long running inventory operation, which is run by the {@link ClickScheduler}
+ * in small steps over multiple client ticks.
+ */
+public interface IClickTask
+{
+    /**
+     * Runs the next step of this task. Each step should only do a small, bounded number of slot clicks.
+     * The clicks that go over the tick's click budget delay the following steps.
+     * @param gui the GUI that this task was scheduled for
+     * @return true if the task has finished, and should be removed from the queue
+     */
+    boolean runStep(GuiContainer gui);
+
+    /**
+     * @return a short description of this task and its progress, shown while the task is running
+     */
+    String getProgressText();
+}
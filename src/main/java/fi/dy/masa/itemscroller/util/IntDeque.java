@@ -0,0 +1,102 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.util.Arrays;
+
+/**
+ * A simple growable deque of primitive ints, backed by a circular array.
+ * This is used for the slot number lists, to avoid boxing every slot number,
+ * and to allow adding the preferred slots to the front without shifting the rest.
+ */
+public class IntDeque
+{
+    private int[] values;
+    private int head;
+    private int size;
+
+    public IntDeque()
+    {
+        this(16);
+    }
+
+    public IntDeque(int initialCapacity)
+    {
+        this.values = new int[Math.max(initialCapacity, 4)];
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    public void clear()
+    {
+        this.head = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Returns the value at the given index, counted from the front of the deque
+     */
+    public int get(int index)
+    {
+        if (index < 0 || index >= this.size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+
+        return this.values[(this.head + index) % this.values.length];
+    }
+
+    public void addFirst(int value)
+    {
+        this.ensureCapacity(this.size + 1);
+        this.head = (this.head - 1 + this.values.length) % this.values.length;
+        this.values[this.head] = value;
+        this.size++;
+    }
+
+    public void addLast(int value)
+    {
+        this.ensureCapacity(this.size + 1);
+        this.values[(this.head + this.size) % this.values.length] = value;
+        this.size++;
+    }
+
+    public void add(int value)
+    {
+        this.addLast(value);
+    }
+
+    public int[] toArray()
+    {
+        int[] arr = new int[this.size];
+
+        for (int i = 0; i < this.size; i++)
+        {
+            arr[i] = this.values[(this.head + i) % this.values.length];
+        }
+
+        return arr;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > this.values.length)
+        {
+            int[] arr = this.toArray();
+            this.values = Arrays.copyOf(arr, Math.max(capacity, this.values.length * 2));
+            this.head = 0;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(this.toArray());
+    }
+}
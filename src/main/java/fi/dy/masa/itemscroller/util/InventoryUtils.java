@@ -1,9 +1,11 @@
 package fi.dy.masa.itemscroller.util;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -14,19 +16,23 @@ import net.minecraft.client.gui.GuiMerchant;
 import net.minecraft.client.gui.GuiScreen;
 import net.minecraft.client.gui.inventory.GuiContainer;
 import net.minecraft.client.gui.inventory.GuiInventory;
+import net.minecraft.client.network.NetHandlerPlayClient;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.InventoryPlayer;
 import net.minecraft.inventory.ClickType;
 import net.minecraft.inventory.Container;
+import net.minecraft.inventory.ContainerPlayer;
+import net.minecraft.inventory.ContainerWorkbench;
 import net.minecraft.inventory.IInventory;
 import net.minecraft.inventory.InventoryCraftResult;
 import net.minecraft.inventory.InventoryCrafting;
 import net.minecraft.inventory.Slot;
+import net.minecraft.inventory.SlotCrafting;
 import net.minecraft.inventory.SlotMerchantResult;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
-import net.minecraft.item.crafting.CraftingManager;
 import net.minecraft.item.crafting.IRecipe;
+import net.minecraft.network.play.client.CPacketPlaceRecipe;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.village.MerchantRecipe;
 import net.minecraft.village.MerchantRecipeList;
@@ -37,13 +43,16 @@ import fi.dy.masa.itemscroller.config.Configs;
 import fi.dy.masa.itemscroller.event.InputEventHandler.MoveAmount;
 import fi.dy.masa.itemscroller.recipes.CraftingHandler;
 import fi.dy.masa.itemscroller.recipes.CraftingHandler.SlotRange;
+import fi.dy.masa.itemscroller.recipes.CraftingQueue;
 import fi.dy.masa.itemscroller.recipes.CraftingRecipe;
+import fi.dy.masa.itemscroller.recipes.CraftingTree;
 import fi.dy.masa.itemscroller.recipes.RecipeStorage;
 
 public class InventoryUtils
 {
     public static final Field fieldSelectedMerchantRecipe = ReflectionHelper.findField(GuiMerchant.class, "field_147041_z", "selectedMerchantRecipe");
-    public static final Method method_GuiContainer_handleMouseClick = ReflectionHelper.findMethod(GuiContainer.class, "handleMouseClick", "func_184098_a", Slot.class, int.class, int.class, ClickType.class);
+    private static final MethodHandle methodHandle_GuiContainer_handleMouseClick = MethodHandleUtils.getMethodHandleVirtual(GuiContainer.class,
+            new String[] { "func_184098_a", "handleMouseClick" }, Slot.class, int.class, int.class, ClickType.class);
 
     public static void onSlotChangedCraftingGrid(World world, EntityPlayer player,
             InventoryCrafting inventoryCrafting, InventoryCraftResult inventoryCraftResult)
@@ -51,7 +60,7 @@ public class InventoryUtils
         if (Configs.enableClientCraftingFix && world.isRemote && player instanceof EntityPlayerSP)
         {
             ItemStack stack = ItemStack.EMPTY;
-            IRecipe recipe = CraftingManager.findMatchingRecipe(inventoryCrafting, world);
+            IRecipe recipe = RecipeMatchCache.getInstance().findMatchingRecipe(inventoryCrafting, world);
 
             if (recipe != null &&
                 (recipe.isDynamic() ||
@@ -85,9 +94,9 @@ public class InventoryUtils
     public static boolean isValidSlot(Slot slot, GuiContainer gui, boolean requireItems)
     {
         return gui.inventorySlots != null && gui.inventorySlots.inventorySlots != null &&
-                slot != null && gui.inventorySlots.inventorySlots.contains(slot) &&
+                slot != null && ContainerIndex.isSlotInContainer(gui.inventorySlots, slot) &&
                 (requireItems == false || slot.getHasStack()) &&
-                Configs.SLOT_BLACKLIST.contains(slot.getClass().getName()) == false;
+                Configs.SLOT_BLACKLIST.isBlacklisted(slot) == false;
     }
 
     public static boolean isCraftingSlot(GuiContainer gui, Slot slot)
@@ -129,7 +138,16 @@ public class InventoryUtils
 
     public static boolean tryMoveItems(GuiContainer gui, RecipeStorage recipes, boolean scrollingUp)
     {
-        Slot slot = gui.getSlotUnderMouse();
+        return tryMoveItems(gui, gui.getSlotUnderMouse(), recipes, scrollingUp, GuiContainer.isShiftKeyDown(), GuiContainer.isCtrlKeyDown());
+    }
+
+    /**
+     * Handles one scroll wheel notch over the given slot, with the given modifier key states.
+     * This is also used to replay the scrolling that was queued while a scheduled operation was running.
+     */
+    public static boolean tryMoveItems(GuiContainer gui, @Nullable Slot slot, RecipeStorage recipes, boolean scrollingUp,
+            boolean isShiftDown, boolean isCtrlDown)
+    {
         Minecraft mc = Minecraft.getMinecraft();
 
         // We require an empty cursor
@@ -141,8 +159,6 @@ public class InventoryUtils
         // Villager handling only happens when scrolling over the trade output slot
         boolean villagerHandling = Configs.enableScrollingVillager && gui instanceof GuiMerchant && slot instanceof SlotMerchantResult;
         boolean craftingHandling = Configs.enableScrollingCrafting && isCraftingSlot(gui, slot);
-        boolean isCtrlDown = GuiContainer.isCtrlKeyDown();
-        boolean isShiftDown = GuiContainer.isShiftKeyDown();
         boolean moveToOtherInventory = scrollingUp;
 
         if (Configs.useSlotPositionAwareScrollDirection)
@@ -229,17 +245,25 @@ public class InventoryUtils
         {
             Container container = gui.inventorySlots;
             stackReference = stackReference.copy();
+            BitSet candidates = ContainerIndex.getFor(container).getSlotsWithItem(stackReference);
+            IntDeque slots = new IntDeque(candidates.cardinality());
 
-            for (Slot slot : container.inventorySlots)
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
             {
+                Slot slot = container.inventorySlots.get(i);
+
                 // If this slot is in the same inventory that the items were picked up to the cursor from
                 // and the stack is identical to the one in the cursor, then this stack will get dropped.
                 if (areSlotsInSameInventory(slot, slotReference) == sameInventory && areStacksEqual(slot.getStack(), stackReference))
                 {
-                    // Drop the stack
-                    dropStack(gui, slot.slotNumber);
+                    slots.add(slot.slotNumber);
                 }
             }
+
+            if (slots.size() > 0)
+            {
+                ClickScheduler.getInstance().schedule(gui, new SlotStacksTask("Dropping stacks", slots, stackReference, SlotAction.DROP, false));
+            }
         }
     }
 
@@ -301,34 +325,22 @@ public class InventoryUtils
         ItemStack stack = stackOrig.copy();
         setStackSize(stack, 1);
 
-        ItemStack[] originalStacks = getOriginalStacks(container);
+        // Simulate shift-clicking a temporary single-item stack, to find out where the item would go
+        SimulatedContainer simulation = new SimulatedContainer(container, mc.player);
+        simulation.setStack(slot.slotNumber, stack);
 
-        // Try to move the temporary single-item stack via the shift-click handler method
-        slot.putStack(stack);
-        container.transferStackInSlot(mc.player, slot.slotNumber);
-
-        // Successfully moved the item somewhere, now we want to check where it went
-        if (slot.getHasStack() == false)
+        if (simulation.clickSlot(slot.slotNumber, 0, ClickType.QUICK_MOVE) &&
+            isStackEmpty(simulation.getStack(slot.slotNumber)))
         {
-            int targetSlot = getTargetSlot(container, originalStacks);
+            int targetSlot = simulation.getFirstChangedSlot(slot.slotNumber);
 
-            // Found where the item went
+            // Found where the item would go, do the slot clicks to actually move the item
             if (targetSlot >= 0)
             {
-                // Remove the dummy item from the target slot (on the client side)
-                container.inventorySlots.get(targetSlot).decrStackSize(1);
-
-                // Restore the original stack to the slot under the cursor (on the client side)
-                restoreOriginalStacks(container, originalStacks);
-
-                // Do the slot clicks to actually move the items (on the server side)
                 return clickSlotsToMoveSingleItem(gui, slot.slotNumber, targetSlot);
             }
         }
 
-        // Restore the original stack to the slot under the cursor (on the client side)
-        slot.putStack(stackOrig);
-
         return false;
     }
 
@@ -413,7 +425,7 @@ public class InventoryUtils
         else
         {
             boolean treatHotbarAsDifferent = gui.getClass() == GuiInventory.class;
-            List<Integer> slots = getSlotNumbersOfEmptySlots(gui.inventorySlots, slot, false, treatHotbarAsDifferent, false);
+            IntDeque slots = getSlotNumbersOfEmptySlots(gui.inventorySlots, slot, false, treatHotbarAsDifferent, false);
 
             if (slots.isEmpty())
             {
@@ -422,34 +434,43 @@ public class InventoryUtils
 
             if (slots.isEmpty() == false)
             {
+                ClickPlanner planner = new ClickPlanner(gui.inventorySlots, player);
+                SimulatedContainer simulation = planner.getSimulation();
+
                 // Take the stack
-                leftClickSlot(gui, slot.slotNumber);
+                planner.addLeftClick(slot.slotNumber);
 
                 // Return one item
-                rightClickSlot(gui, slot.slotNumber);
+                planner.addRightClick(slot.slotNumber);
 
                 // Try to place the stack in the cursor to any valid empty or matching slots in a different inventory
-                for (int slotNum : slots)
+                for (int i = 0; i < slots.size(); i++)
                 {
-                    Slot slotTmp = gui.inventorySlots.getSlot(slotNum);
-                    stackInCursor = player.inventory.getItemStack();
+                    int slotNum = slots.get(i);
 
-                    if (isStackEmpty(stackInCursor))
+                    if (isStackEmpty(simulation.getCursorStack()))
                     {
-                        return true;
+                        break;
                     }
 
-                    if (slotTmp.isItemValid(stackInCursor))
+                    if (gui.inventorySlots.getSlot(slotNum).isItemValid(simulation.getCursorStack()))
                     {
-                        leftClickSlot(gui, slotNum);
+                        planner.addLeftClick(slotNum);
                     }
                 }
 
+                boolean movedAll = isStackEmpty(simulation.getCursorStack());
+
                 // Items left, return them
-                if (isStackEmpty(stackInCursor) == false)
+                if (movedAll == false)
                 {
-                    leftClickSlot(gui, slot.slotNumber);
+                    planner.addLeftClick(slot.slotNumber);
                 }
+
+                planner.execute(gui);
+                returnItemsFromCursor(gui, slot.slotNumber);
+
+                return movedAll;
             }
         }
 
@@ -513,9 +534,11 @@ public class InventoryUtils
     private static void tryMoveStacks(ItemStack stackReference, Slot slot, GuiContainer gui, boolean matchingOnly, boolean toOtherInventory, boolean firstOnly)
     {
         Container container = gui.inventorySlots;
-        final int maxSlot = container.inventorySlots.size() - 1;
+        ContainerIndex index = ContainerIndex.getFor(container);
+        BitSet candidates = matchingOnly ? index.getSlotsWithItem(stackReference) : index.getNonEmptySlots();
+        IntDeque slots = new IntDeque(candidates.cardinality() + 1);
 
-        for (int i = maxSlot; i >= 0; i--)
+        for (int i = candidates.length() - 1; i >= 0; i = candidates.previousSetBit(i - 1))
         {
             Slot slotTmp = container.inventorySlots.get(i);
 
@@ -523,25 +546,37 @@ public class InventoryUtils
                 areSlotsInSameInventory(slotTmp, slot) == toOtherInventory && slotTmp.getHasStack() &&
                 (matchingOnly == false || areStacksEqual(stackReference, slotTmp.getStack())))
             {
-                boolean success = shiftClickSlotWithCheck(gui, slotTmp.slotNumber);
-
-                // Failed to shift-click items, try a manual method
-                if (success == false && Configs.enableScrollingStacksFallback)
-                {
-                    clickSlotsToMoveItemsFromSlot(slotTmp, gui, toOtherInventory);
-                }
-
+                // Moving just one stack is not a bulk operation, so it's done right away
                 if (firstOnly)
                 {
+                    // Failed to shift-click items, try a manual method
+                    if (shiftClickSlotWithCheck(gui, slotTmp.slotNumber) == false && Configs.enableScrollingStacksFallback)
+                    {
+                        clickSlotsToMoveItemsFromSlot(slotTmp, gui, toOtherInventory);
+                    }
+
                     return;
                 }
+
+                slots.add(slotTmp.slotNumber);
             }
         }
 
+        int lastSlot = -1;
+
         // If moving to the other inventory, then move the hovered slot's stack last
-        if (toOtherInventory && shiftClickSlotWithCheck(gui, slot.slotNumber) == false)
+        if (toOtherInventory && slot.getHasStack())
         {
-            clickSlotsToMoveItemsFromSlot(slot, gui, toOtherInventory);
+            slots.add(slot.slotNumber);
+            lastSlot = slot.slotNumber;
+        }
+
+        if (slots.size() > 0)
+        {
+            ItemStack reference = matchingOnly ? stackReference.copy() : EMPTY_STACK;
+            SlotStacksTask task = new SlotStacksTask("Moving stacks", slots, reference, SlotAction.MOVE, toOtherInventory);
+            task.setAlwaysUseFallback(lastSlot);
+            ClickScheduler.getInstance().schedule(gui, task);
         }
     }
 
@@ -611,7 +646,7 @@ public class InventoryUtils
 
         if (craftingOutputSlot != null)
         {
-            tryMoveItemsToCraftingGridSlots(recipe, craftingOutputSlot, gui, fillStacks);
+            fillCraftingGrid(recipe, craftingOutputSlot, gui, fillStacks);
         }
     }
 
@@ -625,7 +660,7 @@ public class InventoryUtils
     {
         if (outputSlot != null && isCraftingSlot(gui, outputSlot) && isStackEmpty(recipe.getResult()) == false)
         {
-            tryMoveItemsToCraftingGridSlots(recipe, outputSlot, gui, false);
+            fillCraftingGrid(recipe, outputSlot, gui, false);
         }
     }
 
@@ -641,7 +676,7 @@ public class InventoryUtils
             {
                 if (isStackEmpty(recipes.getSelectedRecipe().getResult()) == false)
                 {
-                    tryMoveItemsToCraftingGridSlots(recipe, slot, gui, true);
+                    fillCraftingGrid(recipe, slot, gui, true);
                 }
             }
             // Move items from the crafting output slot
@@ -677,7 +712,7 @@ public class InventoryUtils
             {
                 if (isStackEmpty(recipes.getSelectedRecipe().getResult()) == false)
                 {
-                    tryMoveItemsToCraftingGridSlots(recipe, slot, gui, false);
+                    fillCraftingGrid(recipe, slot, gui, false);
                 }
             }
             // Scrolling items from this crafting slot into the other inventory
@@ -705,25 +740,16 @@ public class InventoryUtils
 
     private static void craftAsManyItemsAsPossible(CraftingRecipe recipe, Slot slot, GuiContainer gui)
     {
-        ItemStack result = recipe.getResult();
-        int failSafe = 1024;
+        SlotRange range = CraftingHandler.getCraftingGridSlots(gui, slot);
 
-        while (failSafe > 0 && slot.getHasStack() && areStacksEqual(slot.getStack(), result))
+        if (range != null && range.getLast() < gui.inventorySlots.inventorySlots.size())
         {
-            shiftClickSlot(gui, slot.slotNumber);
+            CraftingPlanner planner = new CraftingPlanner(recipe, gui.inventorySlots, slot, range);
 
-            // Ran out of some or all ingredients for the recipe
-            if (slot.getHasStack() == false || areStacksEqual(slot.getStack(), result) == false)
+            if (planner.getMaxCrafts() > 0)
             {
-                tryMoveItemsToCraftingGridSlots(recipe, slot, gui, true);
+                ClickScheduler.getInstance().schedule(gui, new CraftAsManyItemsAsPossibleTask(recipe, slot, planner, Integer.MAX_VALUE));
             }
-            // No change in the result slot after shift clicking, let's assume the craft failed and stop here
-            else
-            {
-                break;
-            }
-
-            failSafe--;
         }
     }
 
@@ -801,14 +827,101 @@ public class InventoryUtils
         return clearedAll;
     }
 
-    private static boolean tryMoveItemsToCraftingGridSlots(CraftingRecipe recipe, Slot slot, GuiContainer gui, boolean fillStacks)
+    /**
+     * Fills the crafting grid of the given output slot with the recipe's items.
+     * The vanilla crafting grids are filled using the recipe book's recipe placement, if that is enabled in the config.
+     * Otherwise the items are moved with slot clicks. The clicks are done right away if they fit into
+     * the click budget left for this tick, or if this is called from a scheduled task's step,
+     * so that scroll crafting (fill the grid with one notch, take the result with the next) isn't delayed.
+     * Otherwise the fill is done by a scheduled task, and the items aren't in the grid yet when this method returns.
+     */
+    private static void fillCraftingGrid(CraftingRecipe recipe, Slot slot, GuiContainer gui, boolean fillStacks)
     {
-        Container container = gui.inventorySlots;
-        int numSlots = container.inventorySlots.size();
+        if (Configs.craftingUseRecipeBookPlacement && tryPlaceRecipeUsingRecipeBook(recipe, slot, gui, fillStacks))
+        {
+            return;
+        }
+
         SlotRange range = CraftingHandler.getCraftingGridSlots(gui, slot);
 
+        if (isValidGridForRecipe(recipe, gui, range))
+        {
+            ClickScheduler scheduler = ClickScheduler.getInstance();
+
+            if (scheduler.isRunningTaskStep() ||
+                (scheduler.isBusy() == false && estimateGridFillClicks(recipe, gui, range, fillStacks) <= scheduler.getRemainingClicks()))
+            {
+                tryMoveItemsToCraftingGridSlots(recipe, slot, gui, fillStacks);
+            }
+            else
+            {
+                scheduler.schedule(gui, new FillCraftingGridTask(recipe, slot, fillStacks));
+            }
+        }
+    }
+
+    /**
+     * Returns a rough upper estimate of the clicks needed to fill the crafting grid with the recipe:
+     * a shift-click for each occupied grid slot to clear it, a pickup, a place and a return click
+     * for each recipe slot, and the drag start and end clicks for each ingredient when filling stacks.
+     */
+    private static int estimateGridFillClicks(CraftingRecipe recipe, GuiContainer gui, SlotRange range, boolean fillStacks)
+    {
+        int clicks = 0;
+
+        for (int i = 0, slotNum = range.getFirst(); i < range.getSlotCount(); i++, slotNum++)
+        {
+            if (gui.inventorySlots.getSlot(slotNum).getHasStack())
+            {
+                clicks++;
+            }
+        }
+
+        for (IntDeque recipeSlots : recipe.getSlotsPerItem().values())
+        {
+            clicks += recipeSlots.size() * 3 + (fillStacks ? 2 : 0);
+        }
+
+        return clicks;
+    }
+
+    private static boolean isValidGridForRecipe(CraftingRecipe recipe, GuiContainer gui, @Nullable SlotRange range)
+    {
         // Check that the slot range is valid and that the recipe can fit into this type of crafting grid
-        if (range != null && range.getLast() < numSlots && recipe.getRecipeLength() <= range.getSlotCount())
+        return range != null && range.getLast() < gui.inventorySlots.inventorySlots.size() && recipe.getRecipeLength() <= range.getSlotCount();
+    }
+
+    private static boolean tryPlaceRecipeUsingRecipeBook(CraftingRecipe recipe, Slot slot, GuiContainer gui, boolean fillStacks)
+    {
+        Container container = gui.inventorySlots;
+        NetHandlerPlayClient connection = gui.mc.getConnection();
+
+        // The server only handles the recipe placement for these two containers
+        if ((container instanceof ContainerWorkbench == false && container instanceof ContainerPlayer == false) ||
+            slot instanceof SlotCrafting == false || connection == null || gui.mc.player == null)
+        {
+            return false;
+        }
+
+        int gridSize = container instanceof ContainerPlayer ? 2 : 3;
+        IRecipe recipeMatch = recipe.findMatchingRecipe(gui.mc.world);
+
+        if (recipeMatch == null || recipeMatch.isDynamic() || recipeMatch.canFit(gridSize, gridSize) == false ||
+            gui.mc.player.getRecipeBook().isUnlocked(recipeMatch) == false)
+        {
+            return false;
+        }
+
+        connection.sendPacket(new CPacketPlaceRecipe(container.windowId, recipeMatch, fillStacks));
+
+        return true;
+    }
+
+    private static boolean tryMoveItemsToCraftingGridSlots(CraftingRecipe recipe, Slot slot, GuiContainer gui, boolean fillStacks)
+    {
+        SlotRange range = CraftingHandler.getCraftingGridSlots(gui, slot);
+
+        if (isValidGridForRecipe(recipe, gui, range))
         {
             // Clear non-matching items from the grid first
             if (clearCraftingGridOfItems(recipe, gui, range, true) == false)
@@ -816,37 +929,38 @@ public class InventoryUtils
                 return false;
             }
 
-            // This slot is used to check that we get items from a DIFFERENT inventory than where this slot is in
-            Slot slotGridFirst = container.getSlot(range.getFirst());
-            Map<ItemType, List<Integer>> ingredientSlots = ItemType.getSlotsPerItem(recipe.getRecipeItems());
-
-            for (Map.Entry<ItemType, List<Integer>> entry : ingredientSlots.entrySet())
+            for (Map.Entry<ItemType, IntDeque> entry : recipe.getSlotsPerItem().entrySet())
             {
-                ItemStack ingredientReference = entry.getKey().getStack();
-                List<Integer> recipeSlots = entry.getValue();
-                List<Integer> targetSlots = new ArrayList<Integer>();
-
-                // Get the actual target slot numbers based on the grid's start and the relative positions inside the grid
-                for (int s : recipeSlots)
-                {
-                    targetSlots.add(s + range.getFirst());
-                }
-
-                if (fillStacks)
-                {
-                    fillCraftingGrid(gui, slotGridFirst, ingredientReference, targetSlots);
-                }
-                else
-                {
-                    moveOneRecipeItemIntoCraftingGrid(gui, slotGridFirst, ingredientReference, targetSlots);
-                }
+                moveIngredientIntoCraftingGrid(gui, range, entry.getKey(), entry.getValue(), fillStacks);
             }
         }
 
         return false;
     }
 
-    public static void fillCraftingGrid(GuiContainer gui, Slot slotGridFirst, ItemStack ingredientReference, List<Integer> targetSlots)
+    private static void moveIngredientIntoCraftingGrid(GuiContainer gui, SlotRange range, ItemType ingredient, IntDeque recipeSlots, boolean fillStacks)
+    {
+        // This slot is used to check that we get items from a DIFFERENT inventory than where this slot is in
+        Slot slotGridFirst = gui.inventorySlots.getSlot(range.getFirst());
+        IntDeque targetSlots = new IntDeque(recipeSlots.size());
+
+        // Get the actual target slot numbers based on the grid's start and the relative positions inside the grid
+        for (int i = 0; i < recipeSlots.size(); i++)
+        {
+            targetSlots.add(recipeSlots.get(i) + range.getFirst());
+        }
+
+        if (fillStacks)
+        {
+            fillCraftingGrid(gui, slotGridFirst, ingredient.getStack(), targetSlots);
+        }
+        else
+        {
+            moveOneRecipeItemIntoCraftingGrid(gui, slotGridFirst, ingredient.getStack(), targetSlots);
+        }
+    }
+
+    public static void fillCraftingGrid(GuiContainer gui, Slot slotGridFirst, ItemStack ingredientReference, IntDeque targetSlots)
     {
         Container container = gui.inventorySlots;
         Minecraft mc = Minecraft.getMinecraft();
@@ -860,9 +974,11 @@ public class InventoryUtils
             return;
         }
 
+        SourceSlotQueue sources = new SourceSlotQueue(container, slotGridFirst, ingredientReference, 0);
+
         while (true)
         {
-            slotNum = getSlotNumberOfLargestMatchingStackFromDifferentInventory(container, slotGridFirst, ingredientReference);
+            slotNum = sources.getLargestSlot();
 
             // Didn't find ingredient items
             if (slotNum < 0)
@@ -906,6 +1022,13 @@ public class InventoryUtils
                         leftClickSlot(gui, slotReturn);
                     }
                 }
+
+                sources.update(slotNum);
+
+                if (slotReturn != slotNum)
+                {
+                    sources.update(slotReturn);
+                }
             }
             // Failed to pick up the stack, break to avoid infinite loops
             // TODO: we could also "blacklist" this slot and try to continue...?
@@ -960,15 +1083,16 @@ public class InventoryUtils
         }
     }
 
-    public static void craftEverythingPossibleWithCurrentRecipe(CraftingRecipe recipe, GuiContainer gui)
+    public static void craftEverythingPossibleWithCurrentRecipe(RecipeStorage recipes, GuiContainer gui)
     {
+        CraftingRecipe recipe = recipes.getSelectedRecipe();
         Slot slot = CraftingHandler.getFirstCraftingOutputSlotForGui(gui);
 
         if (slot != null && isStackEmpty(recipe.getResult()) == false)
         {
             SlotRange range = CraftingHandler.getCraftingGridSlots(gui, slot);
 
-            if (range != null)
+            if (range != null && range.getLast() < gui.inventorySlots.inventorySlots.size())
             {
                 // Clear all items from the grid first, to avoid unbalanced stacks
                 if (clearCraftingGridOfItems(recipe, gui, range, false) == false)
@@ -976,6 +1100,13 @@ public class InventoryUtils
                     return;
                 }
 
+                // Craft the missing intermediate ingredients first from the other stored recipes, and the target recipe after them
+                if (scheduleIntermediateCrafts(recipes.getSelectedCraftingTree(), slot, gui, range))
+                {
+                    ClickScheduler.getInstance().schedule(gui, new CraftAsManyItemsAsPossibleTask(recipe, slot, null, Integer.MAX_VALUE));
+                    return;
+                }
+
                 tryMoveItemsToCraftingGridSlots(recipe, slot, gui, true);
 
                 if (slot.getHasStack())
@@ -986,6 +1117,123 @@ public class InventoryUtils
         }
     }
 
+    /**
+     * Reserves the ingredients for the jobs in the crafting queue, and schedules the crafts for all the jobs,
+     * using the first crafting grid of the GUI. A job is only removed from the queue once all of its items
+     * have been crafted, so the jobs that can't be run now, and the rest of the partially run jobs, stay in the queue.
+     * @return the number of jobs that can't be run fully, because they don't fit in the grid
+     * or there aren't enough ingredients for all of their items, or -1 if the GUI has no crafting grid
+     */
+    public static int runCraftingQueue(RecipeStorage recipes, GuiContainer gui)
+    {
+        CraftingQueue queue = recipes.getCraftingQueue();
+        Slot slot = CraftingHandler.getFirstCraftingOutputSlotForGui(gui);
+
+        if (slot == null)
+        {
+            return -1;
+        }
+
+        SlotRange range = CraftingHandler.getCraftingGridSlots(gui, slot);
+
+        if (range == null || range.getLast() >= gui.inventorySlots.inventorySlots.size())
+        {
+            return -1;
+        }
+
+        Container container = gui.inventorySlots;
+        ContainerIndex index = ContainerIndex.getFor(container);
+        Map<ItemType, Integer> available = new HashMap<ItemType, Integer>();
+
+        for (ItemType type : queue.getIngredientTypes())
+        {
+            available.put(type, CraftingPlanner.countAvailableItems(container, index, range, type.getStack()));
+        }
+
+        // A copy, as the jobs get removed from the queue as they finish
+        List<CraftingQueue.Job> jobs = new ArrayList<CraftingQueue.Job>(queue.getJobs());
+        int[] crafts = queue.reserveIngredients(available, range.getSlotCount());
+        int notFullyRun = 0;
+
+        for (int i = 0; i < crafts.length; i++)
+        {
+            CraftingQueue.Job job = jobs.get(i);
+
+            if (crafts[i] > 0)
+            {
+                CraftAsManyItemsAsPossibleTask task = new CraftAsManyItemsAsPossibleTask(job.getRecipe(), slot, null, crafts[i]);
+                ClickScheduler.getInstance().schedule(gui, new CraftingQueueJobTask(queue, job, task));
+            }
+
+            if (crafts[i] < job.getRequestedCrafts())
+            {
+                notFullyRun++;
+            }
+        }
+
+        return notFullyRun;
+    }
+
+    /**
+     * Works out how many times each intermediate recipe of the tree needs to be crafted, so that
+     * the target recipe can then be crafted as many times as possible, and schedules those crafts.
+     * @return true if any intermediate crafts were scheduled
+     */
+    private static boolean scheduleIntermediateCrafts(CraftingTree tree, Slot slot, GuiContainer gui, SlotRange range)
+    {
+        List<CraftingRecipe> steps = tree.getSteps();
+
+        if (steps.isEmpty())
+        {
+            return false;
+        }
+
+        Container container = gui.inventorySlots;
+        ContainerIndex index = ContainerIndex.getFor(container);
+        Map<ItemType, Integer> available = new HashMap<ItemType, Integer>();
+
+        for (ItemType type : tree.getIngredientTypes())
+        {
+            available.put(type, CraftingPlanner.countAvailableItems(container, index, range, type.getStack()));
+        }
+
+        int targetCrafts = tree.getMaxTargetCrafts(available);
+        int[] crafts = targetCrafts > 0 ? tree.getIntermediateCrafts(available, targetCrafts) : null;
+        boolean needsIntermediates = false;
+
+        if (crafts == null)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < crafts.length; i++)
+        {
+            if (crafts[i] > 0)
+            {
+                // The intermediate recipe doesn't fit into this grid, just craft what is possible with the target recipe
+                if (steps.get(i).getRecipeLength() > range.getSlotCount())
+                {
+                    return false;
+                }
+
+                needsIntermediates = true;
+            }
+        }
+
+        if (needsIntermediates)
+        {
+            for (int i = 0; i < crafts.length; i++)
+            {
+                if (crafts[i] > 0)
+                {
+                    ClickScheduler.getInstance().schedule(gui, new CraftAsManyItemsAsPossibleTask(steps.get(i), slot, null, crafts[i]));
+                }
+            }
+        }
+
+        return needsIntermediates;
+    }
+
     public static void moveAllCraftingResultsToOtherInventory(CraftingRecipe recipe, GuiContainer gui)
     {
         if (isStackEmpty(recipe.getResult()) == false)
@@ -1008,11 +1256,11 @@ public class InventoryUtils
             {
                 // Get a list of slots with matching items, which are in the same inventory
                 // as the slot that is assumed to be in the player inventory.
-                List<Integer> slots = getSlotNumbersOfMatchingStacks(gui.inventorySlots, slot, true, stackResult, false, false, false);
+                IntDeque slots = getSlotNumbersOfMatchingStacks(gui.inventorySlots, slot, true, stackResult, false, false, false);
 
-                for (int slotNum : slots)
+                if (slots.size() > 0)
                 {
-                    shiftClickSlot(gui, slotNum);
+                    ClickScheduler.getInstance().schedule(gui, new SlotStacksTask("Moving crafting results", slots, stackResult, SlotAction.SHIFT_CLICK, true));
                 }
             }
         }
@@ -1028,7 +1276,7 @@ public class InventoryUtils
         }
     }
 
-    private static int putSingleItemIntoSlots(GuiContainer gui, List<Integer> targetSlots, int startIndex)
+    private static int putSingleItemIntoSlots(GuiContainer gui, IntDeque targetSlots, int startIndex)
     {
         Minecraft mc = Minecraft.getMinecraft();
         ItemStack stackInCursor = mc.player.inventory.getItemStack();
@@ -1068,7 +1316,7 @@ public class InventoryUtils
 
         if (isStackEmpty(stackCursor) == false)
         {
-            List<Integer> slots = getSlotNumbersOfMatchingStacks(gui.inventorySlots, slot, false, stackCursor, true, true, false);
+            IntDeque slots = getSlotNumbersOfMatchingStacks(gui.inventorySlots, slot, false, stackCursor, true, true, false);
 
             if (moveItemFromCursorToSlots(gui, slots) == false)
             {
@@ -1078,17 +1326,18 @@ public class InventoryUtils
         }
     }
 
-    public static void moveOneRecipeItemIntoCraftingGrid(GuiContainer gui, Slot slotGridFirst, ItemStack ingredientReference, List<Integer> targetSlots)
+    public static void moveOneRecipeItemIntoCraftingGrid(GuiContainer gui, Slot slotGridFirst, ItemStack ingredientReference, IntDeque targetSlots)
     {
         Container container = gui.inventorySlots;
         Minecraft mc = Minecraft.getMinecraft();
         int index = 0;
         int slotNum = -1;
         int slotCount = targetSlots.size();
+        SourceSlotQueue sources = new SourceSlotQueue(container, slotGridFirst, ingredientReference, slotCount);
 
         while (index < slotCount)
         {
-            slotNum = getSlotNumberOfSmallestStackFromDifferentInventory(container, slotGridFirst, ingredientReference, slotCount);
+            slotNum = sources.getSmallestAdequateSlot();
 
             // Didn't find ingredient items
             if (slotNum < 0)
@@ -1104,6 +1353,7 @@ public class InventoryUtils
             {
                 int filled = putSingleItemIntoSlots(gui, targetSlots, index);
                 index += filled;
+                sources.update(slotNum);
 
                 if (filled < 1)
                 {
@@ -1125,13 +1375,15 @@ public class InventoryUtils
         }
     }
 
-    private static boolean moveItemFromCursorToSlots(GuiContainer gui, List<Integer> slotNumbers)
+    private static boolean moveItemFromCursorToSlots(GuiContainer gui, IntDeque slotNumbers)
     {
         Minecraft mc = Minecraft.getMinecraft();
         InventoryPlayer inv = mc.player.inventory;
 
-        for (int slotNum : slotNumbers)
+        for (int i = 0; i < slotNumbers.size(); i++)
         {
+            int slotNum = slotNumbers.get(i);
+
             leftClickSlot(gui, slotNum);
 
             if (isStackEmpty(inv.getItemStack()))
@@ -1172,82 +1424,6 @@ public class InventoryUtils
         }
     }
 
-    private static int getSlotNumberOfLargestMatchingStackFromDifferentInventory(Container container, Slot slotReference, ItemStack stackReference)
-    {
-        int slotNum = -1;
-        int largest = 0;
-
-        for (Slot slot : container.inventorySlots)
-        {
-            if (areSlotsInSameInventory(slot, slotReference) == false && slot.getHasStack() &&
-                areStacksEqual(stackReference, slot.getStack()))
-            {
-                int stackSize = getStackSize(slot.getStack());
-
-                if (stackSize > largest)
-                {
-                    slotNum = slot.slotNumber;
-                    largest = stackSize;
-                }
-            }
-        }
-
-        return slotNum;
-    }
-
-    /**
-     * Returns the slot number of the slot that has the smallest stackSize that is still equal to or larger
-     * than idealSize. The slot must also NOT be in the same inventory as slotReference.
-     * If an adequately large stack is not found, then the largest one is selected.
-     * @param container
-     * @param slotReference
-     * @param stackReference
-     * @return
-     */
-    private static int getSlotNumberOfSmallestStackFromDifferentInventory(Container container, Slot slotReference, ItemStack stackReference, int idealSize)
-    {
-        int slotNum = -1;
-        int smallest = Integer.MAX_VALUE;
-
-        for (Slot slot : container.inventorySlots)
-        {
-            if (areSlotsInSameInventory(slot, slotReference) == false && slot.getHasStack() &&
-                areStacksEqual(stackReference, slot.getStack()))
-            {
-                int stackSize = getStackSize(slot.getStack());
-
-                if (stackSize < smallest && stackSize >= idealSize)
-                {
-                    slotNum = slot.slotNumber;
-                    smallest = stackSize;
-                }
-            }
-        }
-
-        // Didn't find an adequately sized stack, now try to find at least some items...
-        if (slotNum == -1)
-        {
-            int largest = 0;
-
-            for (Slot slot : container.inventorySlots)
-            {
-                if (areSlotsInSameInventory(slot, slotReference) == false && slot.getHasStack() &&
-                    areStacksEqual(stackReference, slot.getStack()))
-                {
-                    int stackSize = getStackSize(slot.getStack());
-
-                    if (stackSize > largest)
-                    {
-                        slotNum = slot.slotNumber;
-                        largest = stackSize;
-                    }
-                }
-            }
-        }
-
-        return slotNum;
-    }
-
     /**
      * Return the slot numbers of slots that have items identical to stackReference, that are NOT in the same
      * inventory as slotReference. If preferPartial is true, then stacks with a stackSize less that getMaxStackSize() are
@@ -1261,15 +1437,15 @@ public class InventoryUtils
      * @param reverse if true, returns the slots starting from the end of the inventory
      * @return
      */
-    private static List<Integer> getSlotNumbersOfMatchingStacks(
+    private static IntDeque getSlotNumbersOfMatchingStacks(
             Container container, Slot slotReference, boolean sameInventory,
             ItemStack stackReference, boolean preferPartial, boolean treatHotbarAsDifferent, boolean reverse)
     {
-        List<Integer> slots = new ArrayList<Integer>(64);
-        final int maxSlot = container.inventorySlots.size() - 1;
-        final int increment = reverse ? -1 : 1;
+        IntDeque slots = new IntDeque(64);
+        BitSet candidates = ContainerIndex.getFor(container).getSlotsWithItem(stackReference);
 
-        for (int i = reverse ? maxSlot : 0; i >= 0 && i <= maxSlot; i += increment)
+        for (int i = reverse ? candidates.length() - 1 : candidates.nextSetBit(0); i >= 0;
+                 i = reverse ? candidates.previousSetBit(i - 1) : candidates.nextSetBit(i + 1))
         {
             Slot slot = container.getSlot(i);
 
@@ -1279,11 +1455,11 @@ public class InventoryUtils
             {
                 if ((getStackSize(slot.getStack()) < stackReference.getMaxStackSize()) == preferPartial)
                 {
-                    slots.add(0, slot.slotNumber);
+                    slots.addFirst(slot.slotNumber);
                 }
                 else
                 {
-                    slots.add(slot.slotNumber);
+                    slots.addLast(slot.slotNumber);
                 }
             }
         }
@@ -1291,14 +1467,14 @@ public class InventoryUtils
         return slots;
     }
 
-    private static List<Integer> getSlotNumbersOfEmptySlots(
+    private static IntDeque getSlotNumbersOfEmptySlots(
             Container container, Slot slotReference, boolean sameInventory, boolean treatHotbarAsDifferent, boolean reverse)
     {
-        List<Integer> slots = new ArrayList<Integer>(64);
-        final int maxSlot = container.inventorySlots.size() - 1;
-        final int increment = reverse ? -1 : 1;
+        IntDeque slots = new IntDeque(64);
+        BitSet candidates = ContainerIndex.getFor(container).getEmptySlots();
 
-        for (int i = reverse ? maxSlot : 0; i >= 0 && i <= maxSlot; i += increment)
+        for (int i = reverse ? candidates.length() - 1 : candidates.nextSetBit(0); i >= 0;
+                 i = reverse ? candidates.previousSetBit(i - 1) : candidates.nextSetBit(i + 1))
         {
             Slot slot = container.getSlot(i);
 
@@ -1317,13 +1493,20 @@ public class InventoryUtils
         return ItemStack.areItemsEqual(stack1, stack2) && ItemStack.areItemStackTagsEqual(stack1, stack2);
     }
 
-    private static boolean areSlotsInSameInventory(Slot slot1, Slot slot2)
+    static boolean areSlotsInSameInventory(Slot slot1, Slot slot2)
     {
         return areSlotsInSameInventory(slot1, slot2, false);
     }
 
-    private static boolean areSlotsInSameInventory(Slot slot1, Slot slot2, boolean treatHotbarAsDifferent)
+    static boolean areSlotsInSameInventory(Slot slot1, Slot slot2, boolean treatHotbarAsDifferent)
     {
+        ContainerIndex index = ContainerIndex.getCachedIndexFor(slot1, slot2);
+
+        if (index != null)
+        {
+            return index.areSlotsInSameInventory(slot1.slotNumber, slot2.slotNumber, treatHotbarAsDifferent);
+        }
+
         if (slot1.isSameInventory(slot2))
         {
             if (treatHotbarAsDifferent && slot1.inventory instanceof InventoryPlayer)
@@ -1340,52 +1523,6 @@ public class InventoryUtils
         return false;
     }
 
-    private static ItemStack[] getOriginalStacks(Container container)
-    {
-        ItemStack[] originalStacks = new ItemStack[container.inventorySlots.size()];
-
-        for (int i = 0; i < originalStacks.length; i++)
-        {
-            originalStacks[i] = container.inventorySlots.get(i).getStack().copy();
-        }
-
-        return originalStacks;
-    }
-
-    private static void restoreOriginalStacks(Container container, ItemStack[] originalStacks)
-    {
-        for (int i = 0; i < originalStacks.length; i++)
-        {
-            ItemStack stackSlot = container.getSlot(i).getStack();
-
-            if (areStacksEqual(stackSlot, originalStacks[i]) == false ||
-                (isStackEmpty(stackSlot) == false && getStackSize(stackSlot) != getStackSize(originalStacks[i])))
-            {
-                container.putStackInSlot(i, originalStacks[i]);
-            }
-        }
-    }
-
-    private static int getTargetSlot(Container container, ItemStack[] originalStacks)
-    {
-        List<Slot> slots = container.inventorySlots;
-
-        for (int i = 0; i < originalStacks.length; i++)
-        {
-            ItemStack stackOrig = originalStacks[i];
-            ItemStack stackNew = slots.get(i).getStack();
-
-            if ((isStackEmpty(stackOrig) && isStackEmpty(stackNew) == false) ||
-               (isStackEmpty(stackOrig) == false && isStackEmpty(stackNew) == false &&
-               getStackSize(stackNew) == (getStackSize(stackOrig) + 1)))
-            {
-                return i;
-            }
-        }
-
-        return -1;
-    }
-
     /*
     private void clickSlotsToMoveItems(Slot slot, GuiContainer gui, boolean matchingOnly, boolean toOtherInventory)
     {
@@ -1408,38 +1545,71 @@ public class InventoryUtils
     */
 
     private static void clickSlotsToMoveItemsFromSlot(Slot slotFrom, GuiContainer gui, boolean toOtherInventory)
+    {
+        ClickPlanner planner = planClicksToMoveItemsFromSlot(slotFrom, gui, toOtherInventory);
+
+        if (planner != null)
+        {
+            planner.execute(gui);
+            returnItemsFromCursor(gui, slotFrom.slotNumber);
+        }
+    }
+
+    /**
+     * Plans the left clicks to move the items from the given slot into the other or the same inventory
+     * by hand, without a shift-click.
+     * @return the planner with the clicks, or null if there is nothing to move
+     */
+    @Nullable
+    private static ClickPlanner planClicksToMoveItemsFromSlot(Slot slotFrom, GuiContainer gui, boolean toOtherInventory)
     {
         Minecraft mc = Minecraft.getMinecraft();
-        EntityPlayer player = mc.player;
+        ClickPlanner planner = new ClickPlanner(gui.inventorySlots, mc.player);
+        SimulatedContainer simulation = planner.getSimulation();
+
         // Left click to pick up the found source stack
-        leftClickSlot(gui, slotFrom.slotNumber);
+        planner.addLeftClick(slotFrom.slotNumber);
 
-        if (isStackEmpty(player.inventory.getItemStack()))
+        if (isStackEmpty(simulation.getCursorStack()))
         {
-            return;
+            return null;
         }
 
         for (Slot slotDst : gui.inventorySlots.inventorySlots)
         {
-            ItemStack stackDst = slotDst.getStack();
+            ItemStack stackDst = simulation.getStack(slotDst.slotNumber);
 
             if (areSlotsInSameInventory(slotDst, slotFrom) != toOtherInventory &&
-                (isStackEmpty(stackDst) || areStacksEqual(stackDst, player.inventory.getItemStack())))
+                (isStackEmpty(stackDst) || areStacksEqual(stackDst, simulation.getCursorStack())))
             {
                 // Left click to (try and) place items to the slot
-                leftClickSlot(gui, slotDst.slotNumber);
+                planner.addLeftClick(slotDst.slotNumber);
             }
 
-            if (isStackEmpty(player.inventory.getItemStack()))
+            if (isStackEmpty(simulation.getCursorStack()))
             {
-                return;
+                break;
             }
         }
 
         // Couldn't fit the entire stack to the target inventory, return the rest of the items
-        if (isStackEmpty(player.inventory.getItemStack()) == false)
+        if (isStackEmpty(simulation.getCursorStack()) == false)
         {
-            leftClickSlot(gui, slotFrom.slotNumber);
+            planner.addLeftClick(slotFrom.slotNumber);
+        }
+
+        return planner;
+    }
+
+    /**
+     * If the executed click sequence didn't go as planned and there are items left in the cursor,
+     * then try to return them to the given slot.
+     */
+    private static void returnItemsFromCursor(GuiContainer gui, int slotNum)
+    {
+        if (isStackEmpty(gui.mc.player.inventory.getItemStack()) == false)
+        {
+            leftClickSlot(gui, slotNum);
         }
     }
 
@@ -1565,10 +1735,11 @@ public class InventoryUtils
             return false;
         }
 
-        int sizeOrig = getStackSize(slot.getStack());
+        ContainerChangeTracker tracker = ContainerChangeTracker.getFor(gui.inventorySlots);
+        long sequence = tracker.getSequence();
         shiftClickSlot(gui, slotNum);
 
-        return slot.getHasStack() == false || getStackSize(slot.getStack()) != sizeOrig;
+        return tracker.hasChangedSince(sequence, slotNum);
     }
 
     public static boolean tryMoveItemsVertically(GuiContainer gui, Slot slot, RecipeStorage recipes, boolean moveUp, MoveAmount amount)
@@ -1594,7 +1765,7 @@ public class InventoryUtils
             return tryMoveItemsVillager((GuiMerchant) gui, slot, moveUp == false, amount == MoveAmount.MOVE_ALL);
         }
 
-        List<Integer> slots = getVerticallyFurthestSuitableSlotsForStackInSlot(gui.inventorySlots, slot, moveUp);
+        IntDeque slots = getVerticallyFurthestSuitableSlotsForStackInSlot(gui.inventorySlots, slot, moveUp);
 
         if (slots.isEmpty())
         {
@@ -1617,37 +1788,42 @@ public class InventoryUtils
         return true;
     }
 
-    private static void moveStackToSlots(GuiContainer gui, Slot slotFrom, List<Integer> slotsTo, boolean leaveOne)
+    private static void moveStackToSlots(GuiContainer gui, Slot slotFrom, IntDeque slotsTo, boolean leaveOne)
     {
-        InventoryPlayer inv = gui.mc.player.inventory;
+        ClickPlanner planner = new ClickPlanner(gui.inventorySlots, gui.mc.player);
+        SimulatedContainer simulation = planner.getSimulation();
 
         // Pick up the stack
-        leftClickSlot(gui, slotFrom.slotNumber);
+        planner.addLeftClick(slotFrom.slotNumber);
 
         if (leaveOne)
         {
-            rightClickSlot(gui, slotFrom.slotNumber);
+            planner.addRightClick(slotFrom.slotNumber);
         }
 
-        for (int slotNum : slotsTo)
+        for (int i = 0; i < slotsTo.size(); i++)
         {
-            if (isStackEmpty(inv.getItemStack()))
+            int slotNum = slotsTo.get(i);
+
+            if (isStackEmpty(simulation.getCursorStack()))
             {
                 break;
             }
 
-            leftClickSlot(gui, slotNum);
-            //System.out.printf("suitable slot: %3d\n", slotNum);
+            planner.addLeftClick(slotNum);
         }
 
         // Return the rest of the items, if any
-        if (isStackEmpty(inv.getItemStack()) == false)
+        if (isStackEmpty(simulation.getCursorStack()) == false)
         {
-            leftClickSlot(gui, slotFrom.slotNumber);
+            planner.addLeftClick(slotFrom.slotNumber);
         }
+
+        planner.execute(gui);
+        returnItemsFromCursor(gui, slotFrom.slotNumber);
     }
 
-    private static void moveOneItemToFirstValidSlot(GuiContainer gui, Slot slotFrom, List<Integer> slotsTo)
+    private static void moveOneItemToFirstValidSlot(GuiContainer gui, Slot slotFrom, IntDeque slotsTo)
     {
         InventoryPlayer inv = gui.mc.player.inventory;
 
@@ -1661,8 +1837,10 @@ public class InventoryUtils
 
         int sizeOrig = getStackSize(inv.getItemStack());
 
-        for (int slotNum : slotsTo)
+        for (int i = 0; i < slotsTo.size(); i++)
         {
+            int slotNum = slotsTo.get(i);
+
             rightClickSlot(gui, slotNum);
             ItemStack stackCursor = inv.getItemStack();
 
@@ -1679,11 +1857,11 @@ public class InventoryUtils
         }
     }
 
-    private static List<Integer> getVerticallyFurthestSuitableSlotsForStackInSlot(Container container, Slot slot, boolean above)
+    private static IntDeque getVerticallyFurthestSuitableSlotsForStackInSlot(Container container, Slot slot, boolean above)
     {
         if (slot == null || slot.getHasStack() == false)
         {
-            return Collections.emptyList();
+            return new IntDeque(0);
         }
 
         List<SlotVerticalSorter> slotSorters = new ArrayList<SlotVerticalSorter>();
@@ -1713,7 +1891,7 @@ public class InventoryUtils
             Collections.reverse(slotSorters);
         }
 
-        List<Integer> slots = new ArrayList<Integer>();
+        IntDeque slots = new IntDeque(slotSorters.size());
 
         for (SlotVerticalSorter entry : slotSorters)
         {
@@ -1749,6 +1927,343 @@ public class InventoryUtils
         }
     }
 
+    /**
+     * Runs the crafting task of a crafting queue job, and updates the job in the queue as the items get crafted.
+     * The job is removed when all of its items have been crafted, otherwise the rest of it stays in the queue.
+     */
+    private static class CraftingQueueJobTask implements IClickTask
+    {
+        private final CraftingQueue queue;
+        private final CraftingQueue.Job job;
+        private final CraftAsManyItemsAsPossibleTask task;
+        private int reportedCrafts;
+
+        public CraftingQueueJobTask(CraftingQueue queue, CraftingQueue.Job job, CraftAsManyItemsAsPossibleTask task)
+        {
+            this.queue = queue;
+            this.job = job;
+            this.task = task;
+        }
+
+        @Override
+        public boolean runStep(GuiContainer gui)
+        {
+            boolean finished = this.task.runStep(gui);
+
+            if (this.task.craftCount > this.reportedCrafts)
+            {
+                this.queue.onItemsCrafted(this.job, (this.task.craftCount - this.reportedCrafts) * this.job.getResultSize());
+                this.reportedCrafts = this.task.craftCount;
+            }
+
+            if (finished && this.job.getItemCount() == 0)
+            {
+                this.queue.removeJob(this.job);
+            }
+
+            return finished;
+        }
+
+        @Override
+        public String getProgressText()
+        {
+            return "Crafting queue: " + this.task.getProgressText();
+        }
+    }
+
+    /**
+     * Crafts the number of items that the CraftingPlanner worked out, one batch per step,
+     * but at most craftLimit crafts. Each batch refills the grid if needed, and then shift-clicks
+     * the crafting output slot once. If no planner is given, then it is created on the first step,
+     * so that the task can be queued after other tasks that produce the ingredients.
+     */
+    private static class CraftAsManyItemsAsPossibleTask implements IClickTask
+    {
+        private final CraftingRecipe recipe;
+        private final ItemStack result;
+        private final Slot slot;
+        private final int craftLimit;
+        private CraftingPlanner planner;
+        private int plannedCrafts;
+        private int batchesLeft;
+        private int craftCount;
+
+        public CraftAsManyItemsAsPossibleTask(CraftingRecipe recipe, Slot slot, @Nullable CraftingPlanner planner, int craftLimit)
+        {
+            this.recipe = recipe;
+            this.result = recipe.getResult().copy();
+            this.slot = slot;
+            this.craftLimit = craftLimit;
+
+            if (planner != null)
+            {
+                this.setPlanner(planner);
+            }
+        }
+
+        private void setPlanner(CraftingPlanner planner)
+        {
+            this.planner = planner;
+            this.plannedCrafts = Math.min(planner.getMaxCrafts(), this.craftLimit);
+            // One extra batch, in case the items that were already in the grid don't line up with the full batches
+            this.batchesLeft = (this.plannedCrafts + planner.getBatchSize() - 1) / planner.getBatchSize() + 1;
+        }
+
+        @Override
+        public boolean runStep(GuiContainer gui)
+        {
+            if (this.planner == null)
+            {
+                SlotRange range = CraftingHandler.getCraftingGridSlots(gui, this.slot);
+
+                if (range == null || range.getLast() >= gui.inventorySlots.inventorySlots.size())
+                {
+                    return true;
+                }
+
+                this.setPlanner(new CraftingPlanner(this.recipe, gui.inventorySlots, this.slot, range));
+            }
+
+            if (this.craftCount >= this.plannedCrafts || this.batchesLeft <= 0)
+            {
+                return true;
+            }
+
+            this.batchesLeft--;
+
+            if (this.slot.getHasStack() == false || areStacksEqual(this.slot.getStack(), this.result) == false)
+            {
+                this.fillGrid(gui);
+            }
+
+            int craftsBefore = this.planner.getCraftsInGrid();
+
+            if (craftsBefore <= 0 || this.slot.getHasStack() == false || areStacksEqual(this.slot.getStack(), this.result) == false)
+            {
+                return true;
+            }
+
+            shiftClickSlot(gui, this.slot.slotNumber);
+
+            int crafted = craftsBefore - this.planner.getCraftsInGrid();
+            this.craftCount += crafted;
+
+            // Nothing got crafted, for example because the output didn't fit after all
+            return crafted <= 0 || this.craftCount >= this.plannedCrafts;
+        }
+
+        private void fillGrid(GuiContainer gui)
+        {
+            int remaining = this.plannedCrafts - this.craftCount;
+
+            // When limited to less than a full batch, move in one set of items at a time, so that nothing extra gets crafted
+            if (remaining < this.planner.getBatchSize() && this.plannedCrafts < this.planner.getMaxCrafts())
+            {
+                for (int crafts = this.planner.getCraftsInGrid(); crafts < remaining; )
+                {
+                    tryMoveItemsToCraftingGridSlots(this.recipe, this.slot, gui, false);
+                    int craftsNow = this.planner.getCraftsInGrid();
+
+                    if (craftsNow <= crafts)
+                    {
+                        break;
+                    }
+
+                    crafts = craftsNow;
+                }
+            }
+            else
+            {
+                tryMoveItemsToCraftingGridSlots(this.recipe, this.slot, gui, true);
+            }
+        }
+
+        @Override
+        public String getProgressText()
+        {
+            return String.format("Crafting %s: %d / %d crafts", this.result.getDisplayName(), this.craftCount, this.plannedCrafts);
+        }
+    }
+
+    private enum SlotAction
+    {
+        /** Shift-click, and if that doesn't move anything, move the items with left clicks if that is enabled */
+        MOVE,
+        /** Only shift-click */
+        SHIFT_CLICK,
+        /** Drop the whole stack */
+        DROP;
+    }
+
+    /**
+     * Moves or drops the stacks from the given slots, one slot per step. The slots that no longer
+     * have the reference items (or any items, if the reference is empty) when their turn comes are skipped.
+     * The fallback click sequences for the stacks that can't be shift-clicked are sent one click per step,
+     * so that a long sequence can't go over the click budget.
+     */
+    private static class SlotStacksTask implements IClickTask
+    {
+        private final String description;
+        private final IntDeque slots;
+        private final ItemStack stackReference;
+        private final SlotAction action;
+        private final boolean toOtherInventory;
+        private int alwaysUseFallbackSlot = -1;
+        private int index;
+        private List<ClickPlanner.PlannedClick> pendingClicks;
+        private int pendingIndex;
+        private int pendingSlot;
+
+        public SlotStacksTask(String description, IntDeque slots, ItemStack stackReference, SlotAction action, boolean toOtherInventory)
+        {
+            this.description = description;
+            this.slots = slots;
+            this.stackReference = stackReference;
+            this.action = action;
+            this.toOtherInventory = toOtherInventory;
+        }
+
+        /**
+         * Sets a slot that uses the left click fallback even if it's disabled in the config
+         */
+        public void setAlwaysUseFallback(int slotNum)
+        {
+            this.alwaysUseFallbackSlot = slotNum;
+        }
+
+        @Override
+        public boolean runStep(GuiContainer gui)
+        {
+            if (this.pendingClicks != null)
+            {
+                if (this.pendingIndex < this.pendingClicks.size())
+                {
+                    ClickPlanner.PlannedClick click = this.pendingClicks.get(this.pendingIndex++);
+                    clickSlot(gui, click.slotNum, click.mouseButton, click.type);
+                    return false;
+                }
+
+                returnItemsFromCursor(gui, this.pendingSlot);
+                this.pendingClicks = null;
+            }
+
+            final int numSlots = gui.inventorySlots.inventorySlots.size();
+
+            while (this.index < this.slots.size())
+            {
+                int slotNum = this.slots.get(this.index++);
+
+                if (slotNum >= numSlots)
+                {
+                    continue;
+                }
+
+                Slot slot = gui.inventorySlots.getSlot(slotNum);
+
+                if (slot.getHasStack() == false ||
+                    (isStackEmpty(this.stackReference) == false && areStacksEqual(this.stackReference, slot.getStack()) == false))
+                {
+                    continue;
+                }
+
+                if (this.action == SlotAction.DROP)
+                {
+                    dropStack(gui, slotNum);
+                }
+                else if (this.action == SlotAction.SHIFT_CLICK)
+                {
+                    shiftClickSlot(gui, slotNum);
+                }
+                else if (shiftClickSlotWithCheck(gui, slotNum) == false &&
+                         (Configs.enableScrollingStacksFallback || slotNum == this.alwaysUseFallbackSlot))
+                {
+                    ClickPlanner planner = planClicksToMoveItemsFromSlot(slot, gui, this.toOtherInventory);
+
+                    if (planner != null)
+                    {
+                        this.pendingClicks = planner.getOptimizedClicks();
+                        this.pendingIndex = 0;
+                        this.pendingSlot = slotNum;
+                    }
+                }
+
+                return false;
+            }
+
+            return this.pendingClicks == null;
+        }
+
+        @Override
+        public String getProgressText()
+        {
+            return String.format("%s: %d / %d slots", this.description, this.index, this.slots.size());
+        }
+    }
+
+    /**
+     * Fills a crafting grid with the recipe's items. The first step clears the non-matching items from the grid,
+     * and then each step moves the items for one ingredient.
+     */
+    private static class FillCraftingGridTask implements IClickTask
+    {
+        private final CraftingRecipe recipe;
+        private final Slot slot;
+        private final boolean fillStacks;
+        private final List<Map.Entry<ItemType, IntDeque>> ingredients;
+        private boolean gridCleared;
+        private int index;
+
+        public FillCraftingGridTask(CraftingRecipe recipe, Slot slot, boolean fillStacks)
+        {
+            // The stored recipe can be overwritten while the task is waiting to run
+            this.recipe = new CraftingRecipe();
+            this.recipe.copyRecipeFrom(recipe);
+            this.slot = slot;
+            this.fillStacks = fillStacks;
+            this.ingredients = new ArrayList<Map.Entry<ItemType, IntDeque>>(this.recipe.getSlotsPerItem().entrySet());
+        }
+
+        @Override
+        public boolean runStep(GuiContainer gui)
+        {
+            SlotRange range = CraftingHandler.getCraftingGridSlots(gui, this.slot);
+
+            if (isValidGridForRecipe(this.recipe, gui, range) == false)
+            {
+                return true;
+            }
+
+            final int clicksBefore = ClickScheduler.getInstance().getTotalClicks();
+
+            if (this.gridCleared == false)
+            {
+                this.gridCleared = true;
+
+                // Clear non-matching items from the grid first
+                if (clearCraftingGridOfItems(this.recipe, gui, range, true) == false)
+                {
+                    return true;
+                }
+            }
+
+            // Skip over the ingredients that there are no items for, so that they don't each take a tick
+            while (this.index < this.ingredients.size() && ClickScheduler.getInstance().getTotalClicks() == clicksBefore)
+            {
+                Map.Entry<ItemType, IntDeque> entry = this.ingredients.get(this.index++);
+                moveIngredientIntoCraftingGrid(gui, range, entry.getKey(), entry.getValue(), this.fillStacks);
+            }
+
+            return this.index >= this.ingredients.size();
+        }
+
+        @Override
+        public String getProgressText()
+        {
+            return String.format("Filling the crafting grid for %s: %d / %d ingredients",
+                    this.recipe.getResult().getDisplayName(), this.index, this.ingredients.size());
+        }
+    }
+
     public static void clickSlot(GuiContainer gui, int slotNum, int mouseButton, ClickType type)
     {
         if (slotNum >= 0 && slotNum < gui.inventorySlots.inventorySlots.size())
@@ -1758,6 +2273,8 @@ public class InventoryUtils
         }
         else
         {
+            ClickScheduler.getInstance().onClickSent();
+
             try
             {
                 gui.mc.playerController.windowClick(gui.inventorySlots.windowId, slotNum, mouseButton, type, gui.mc.player);
@@ -1767,20 +2284,28 @@ public class InventoryUtils
                 ItemScroller.logger.warn("Exception while emulating a slot click: gui: '{}', slotNum: {}, mouseButton; {}, ClickType: {}",
                         gui.getClass().getName(), slotNum, mouseButton, type, e);
             }
+
+            ContainerChangeTracker.onSlotClicked(gui, null, slotNum, type);
         }
     }
 
     public static void clickSlot(GuiContainer gui, Slot slot, int slotNum, int mouseButton, ClickType type)
     {
+        ClickScheduler.getInstance().onClickSent();
+
         try
         {
-            method_GuiContainer_handleMouseClick.invoke(gui, slot, slotNum, mouseButton, type);
+            // invokeExact() with the exact handle type avoids the argument boxing and varargs array
+            // allocation of Method.invoke(), and the virtual handle still dispatches to any override
+            methodHandle_GuiContainer_handleMouseClick.invokeExact(gui, slot, slotNum, mouseButton, type);
         }
-        catch (Exception e)
+        catch (Throwable e)
         {
             ItemScroller.logger.warn("Exception while emulating a slot click: gui: '{}', slotNum: {}, mouseButton; {}, ClickType: {}",
                     gui.getClass().getName(), slotNum, mouseButton, type, e);
         }
+
+        ContainerChangeTracker.onSlotClicked(gui, slot, slotNum, type);
     }
 
     public static void leftClickSlot(GuiContainer gui, int slotNum)
@@ -1808,7 +2333,7 @@ public class InventoryUtils
         clickSlot(gui, slotNum, 1, ClickType.THROW);
     }
 
-    private static void dragSplitItemsIntoSlots(GuiContainer gui, List<Integer> targetSlots)
+    private static void dragSplitItemsIntoSlots(GuiContainer gui, IntDeque targetSlots)
     {
         Minecraft mc = Minecraft.getMinecraft();
         ItemStack stackInCursor = mc.player.inventory.getItemStack();
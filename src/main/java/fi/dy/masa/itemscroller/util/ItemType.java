@@ -1,42 +1,116 @@
 package fi.dy.masa.itemscroller.util;
 
-import java.util.ArrayList;
+import java.lang.ref.WeakReference;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
 
 /**
  * Wrapper class for ItemStack, which implements equals()
- * for the item, damage and NBT, but not stackSize.
+ * for the item, damage, NBT and capabilities, but not stackSize.
+ * An instance created with the constructor shares the NBT tag with the source stack, and the hash code
+ * is computed once, so those are only meant for short lived lookups while the stack doesn't change.
+ * Use getCanonical() to get an interned instance, if the instances are kept around as keys.
+ * The canonical instances keep their own copy of the stack, so changes to the source stack don't affect them.
  */
 public class ItemType
 {
-    private final ItemStack stack;
+    private static final Map<ItemType, WeakReference<ItemType>> CANONICAL_TYPES = new WeakHashMap<ItemType, WeakReference<ItemType>>();
+
+    private final Item item;
+    private final int meta;
+    private final boolean empty;
+    @Nullable private final NBTTagCompound tag;
+    /** The source stack, used for comparing the capabilities */
+    private final ItemStack source;
+    private final int hash;
+    private ItemStack stack;
 
     public ItemType(@Nonnull ItemStack stack)
     {
-        this.stack = stack.copy();
+        this.empty = InventoryUtils.isStackEmpty(stack);
+        this.item = stack.getItem();
+        this.meta = stack.getMetadata();
+        this.tag = stack.getTagCompound();
+        this.source = stack;
+        this.hash = this.calculateHashCode();
+    }
+
+    /**
+     * Returns the canonical instance of the ItemType for the given stack.
+     * Canonical instances of equal ItemTypes are identical, as long as they are strongly referenced somewhere.
+     */
+    public static ItemType getCanonical(@Nonnull ItemStack stack)
+    {
+        ItemType type = new ItemType(stack);
+        WeakReference<ItemType> ref = CANONICAL_TYPES.get(type);
+        ItemType canonical = ref != null ? ref.get() : null;
+
+        if (canonical == null)
+        {
+            // The canonical instance is kept around as a key, so it must not share anything with the source stack
+            ItemStack copy = type.empty ? InventoryUtils.EMPTY_STACK : stack.copy();
+
+            if (type.empty == false)
+            {
+                InventoryUtils.setStackSize(copy, 1);
+            }
+
+            canonical = new ItemType(copy);
+            canonical.stack = copy;
+            CANONICAL_TYPES.put(canonical, new WeakReference<ItemType>(canonical));
+        }
+
+        return canonical;
     }
 
+    /**
+     * Returns a single item stack of this type. The returned stack shares the NBT tag, so it must not be modified.
+     */
     public ItemStack getStack()
     {
+        if (this.stack == null)
+        {
+            if (this.empty)
+            {
+                this.stack = InventoryUtils.EMPTY_STACK;
+            }
+            else
+            {
+                this.stack = new ItemStack(this.item, 1, this.meta);
+                this.stack.setTagCompound(this.tag);
+            }
+        }
+
         return this.stack;
     }
 
-    @Override
-    public int hashCode()
+    private int calculateHashCode()
     {
+        if (this.empty)
+        {
+            return 0;
+        }
+
         final int prime = 31;
         int result = 1;
-        //result = prime * result + ((stack == null) ? 0 : stack.hashCode());
-        result = prime * result + this.stack.getMetadata();
-        result = prime * result + this.stack.getItem().hashCode();
-        result = prime * result + (this.stack.getTagCompound() != null ? this.stack.getTagCompound().hashCode() : 0);
+        result = prime * result + this.meta;
+        result = prime * result + this.item.hashCode();
+        result = prime * result + (this.tag != null ? this.tag.hashCode() : 0);
         return result;
     }
 
+    @Override
+    public int hashCode()
+    {
+        return this.hash;
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -49,27 +123,23 @@ public class ItemType
 
         ItemType other = (ItemType) obj;
 
-        if (InventoryUtils.isStackEmpty(this.stack) || InventoryUtils.isStackEmpty(other.stack))
+        if (this.empty || other.empty)
         {
-            if (InventoryUtils.isStackEmpty(this.stack) != InventoryUtils.isStackEmpty(other.stack))
-                return false;
+            return this.empty == other.empty;
         }
-        else
-        {
-            if (this.stack.getMetadata() != other.stack.getMetadata())
-            {
-                return false;
-            }
 
-            if (this.stack.getItem() != other.stack.getItem())
-            {
-                return false;
-            }
+        if (this.hash != other.hash || this.meta != other.meta || this.item != other.item)
+        {
+            return false;
+        }
 
-            return ItemStack.areItemStackTagsEqual(this.stack, other.stack);
+        if (this.tag != other.tag && (this.tag == null || this.tag.equals(other.tag) == false))
+        {
+            return false;
         }
 
-        return true;
+        // Same as what ItemStack.areItemStackTagsEqual() checks in addition to the tags
+        return this.source.areCapsCompatible(other.source);
     }
 
     /**
@@ -77,9 +147,9 @@ public class ItemType
      * @param stacks
      * @return
      */
-    public static Map<ItemType, List<Integer>> getSlotsPerItem(ItemStack[] stacks)
+    public static Map<ItemType, IntDeque> getSlotsPerItem(ItemStack[] stacks)
     {
-        Map<ItemType, List<Integer>> mapSlots = new HashMap<ItemType, List<Integer>>();
+        Map<ItemType, IntDeque> mapSlots = new HashMap<ItemType, IntDeque>();
 
         for (int i = 0; i < stacks.length; i++)
         {
@@ -87,12 +157,12 @@ public class ItemType
 
             if (InventoryUtils.isStackEmpty(stack) == false)
             {
-                ItemType item = new ItemType(stack);
-                List<Integer> slots = mapSlots.get(item);
+                ItemType item = getCanonical(stack);
+                IntDeque slots = mapSlots.get(item);
 
                 if (slots == null)
                 {
-                    slots = new ArrayList<Integer>();
+                    slots = new IntDeque();
                     mapSlots.put(item, slots);
                 }
 
@@ -0,0 +1,261 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import net.minecraft.inventory.InventoryCrafting;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.crafting.CraftingManager;
+import net.minecraft.item.crafting.IRecipe;
+import net.minecraft.world.World;
+
+/**
+ * A bounded LRU cache for the results of CraftingManager.findMatchingRecipe(),
+ * so that filling a crafting grid item by item doesn't scan the whole recipe registry on every slot change.
+ * <br><br>
+ * The cache key is the layout of the items in the grid, trimmed to the occupied area, so the same
+ * layout in a different position or in a different size grid uses the same entry. A layout and its
+ * horizontal mirror image also share an entry, but the results are stored per orientation.
+ * A cached recipe is always checked with IRecipe#matches() before it is used, and the result found
+ * for the other orientation is only used if it also matches this one. Layouts without a matching recipe
+ * are not cached, so they always go through the full registry search.
+ * The cache is cleared when the world changes, or when the number of registered recipes changes.
+ */
+public class RecipeMatchCache
+{
+    private static final RecipeMatchCache INSTANCE = new RecipeMatchCache();
+    private static final int MAX_ENTRIES = 256;
+
+    private final LinkedHashMap<GridLayout, Entry> entries = new LinkedHashMap<GridLayout, Entry>(64, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<GridLayout, Entry> eldest)
+        {
+            return this.size() > MAX_ENTRIES;
+        }
+    };
+    private int registrySize = -1;
+    private long hits;
+    private long misses;
+
+    public static RecipeMatchCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the same recipe as CraftingManager.findMatchingRecipe() would for the given grid
+     */
+    @Nullable
+    public IRecipe findMatchingRecipe(InventoryCrafting inventory, World world)
+    {
+        int registrySize = CraftingManager.REGISTRY.getKeys().size();
+
+        if (registrySize != this.registrySize)
+        {
+            this.clear();
+            this.registrySize = registrySize;
+        }
+
+        GridLayout layout = GridLayout.of(inventory);
+
+        if (layout == null)
+        {
+            return CraftingManager.findMatchingRecipe(inventory, world);
+        }
+
+        int orientation = layout.mirrored ? 1 : 0;
+        Entry entry = this.entries.get(layout);
+
+        if (entry == null)
+        {
+            entry = new Entry();
+            this.entries.put(layout, entry);
+        }
+        else if (entry.known[orientation])
+        {
+            IRecipe recipe = entry.recipes[orientation];
+
+            if (recipe.matches(inventory, world))
+            {
+                this.hits++;
+                return recipe;
+            }
+        }
+        else
+        {
+            IRecipe recipe = entry.recipes[1 - orientation];
+
+            // Most recipes match both orientations, so try the one found for the mirror image first
+            if (recipe != null && recipe.matches(inventory, world))
+            {
+                entry.setRecipe(orientation, recipe);
+                this.hits++;
+                return recipe;
+            }
+        }
+
+        IRecipe recipe = CraftingManager.findMatchingRecipe(inventory, world);
+        this.misses++;
+
+        // Not finding a recipe is not cached, as it can't be verified like a found recipe can
+        if (recipe != null)
+        {
+            entry.setRecipe(orientation, recipe);
+        }
+
+        return recipe;
+    }
+
+    public void clear()
+    {
+        this.entries.clear();
+        this.registrySize = -1;
+    }
+
+    public long getHitCount()
+    {
+        return this.hits;
+    }
+
+    public long getMissCount()
+    {
+        return this.misses;
+    }
+
+    public int getSize()
+    {
+        return this.entries.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("RecipeMatchCache{size=%d, hits=%d, misses=%d}", this.entries.size(), this.hits, this.misses);
+    }
+
+    private static class Entry
+    {
+        private final IRecipe[] recipes = new IRecipe[2];
+        private final boolean[] known = new boolean[2];
+
+        private void setRecipe(int orientation, IRecipe recipe)
+        {
+            this.recipes[orientation] = recipe;
+            this.known[orientation] = true;
+        }
+    }
+
+    /**
+     * The item types in the occupied area of a crafting grid, in the orientation
+     * (as-is or mirrored) that has the smaller ordering, so that mirror images are equal.
+     */
+    private static class GridLayout
+    {
+        private final int width;
+        private final int height;
+        private final ItemType[] items;
+        private final boolean mirrored;
+        private final int hash;
+
+        private GridLayout(int width, int height, ItemType[] items, boolean mirrored)
+        {
+            this.width = width;
+            this.height = height;
+            this.items = items;
+            this.mirrored = mirrored;
+            this.hash = 31 * (31 * width + height) + Arrays.hashCode(items);
+        }
+
+        /**
+         * Returns the layout of the given grid, or null if the grid is empty
+         */
+        @Nullable
+        private static GridLayout of(InventoryCrafting inventory)
+        {
+            int gridWidth = inventory.getWidth();
+            int gridHeight = inventory.getHeight();
+            int minX = gridWidth;
+            int minY = gridHeight;
+            int maxX = -1;
+            int maxY = -1;
+
+            for (int y = 0; y < gridHeight; y++)
+            {
+                for (int x = 0; x < gridWidth; x++)
+                {
+                    if (InventoryUtils.isStackEmpty(inventory.getStackInRowAndColumn(x, y)) == false)
+                    {
+                        minX = Math.min(minX, x);
+                        minY = Math.min(minY, y);
+                        maxX = Math.max(maxX, x);
+                        maxY = Math.max(maxY, y);
+                    }
+                }
+            }
+
+            if (maxX < 0)
+            {
+                return null;
+            }
+
+            int width = maxX - minX + 1;
+            int height = maxY - minY + 1;
+            ItemType[] items = new ItemType[width * height];
+            ItemType[] itemsMirrored = new ItemType[width * height];
+
+            for (int y = 0; y < height; y++)
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    ItemStack stack = inventory.getStackInRowAndColumn(minX + x, minY + y);
+                    ItemType type = InventoryUtils.isStackEmpty(stack) ? null : ItemType.getCanonical(stack);
+                    items[y * width + x] = type;
+                    itemsMirrored[y * width + width - 1 - x] = type;
+                }
+            }
+
+            // The ItemTypes are canonical instances, so the identity hash codes give a stable order between the two
+            for (int i = 0; i < items.length; i++)
+            {
+                int a = System.identityHashCode(items[i]);
+                int b = System.identityHashCode(itemsMirrored[i]);
+
+                if (a != b)
+                {
+                    return a < b ? new GridLayout(width, height, items, false) : new GridLayout(width, height, itemsMirrored, true);
+                }
+            }
+
+            return new GridLayout(width, height, items, false);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+
+            if (obj == null || this.getClass() != obj.getClass())
+            {
+                return false;
+            }
+
+            GridLayout other = (GridLayout) obj;
+
+            // The orientation is deliberately not a part of the key
+            return this.width == other.width && this.height == other.height && Arrays.equals(this.items, other.items);
+        }
+    }
+}
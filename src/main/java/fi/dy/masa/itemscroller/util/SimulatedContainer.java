@@ -0,0 +1,750 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import net.minecraft.entity.EntityLiving;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.InventoryPlayer;
+import net.minecraft.inventory.ClickType;
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.ContainerFurnace;
+import net.minecraft.inventory.ContainerPlayer;
+import net.minecraft.inventory.ContainerWorkbench;
+import net.minecraft.inventory.EntityEquipmentSlot;
+import net.minecraft.inventory.Slot;
+import net.minecraft.inventory.SlotCrafting;
+import net.minecraft.inventory.SlotMerchantResult;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.crafting.FurnaceRecipes;
+import net.minecraft.tileentity.TileEntityFurnace;
+
+/**
+ * A lightweight simulation of a Container's slot contents, used to predict
+ * the outcome of slot clicks without touching the real slots or the cursor.
+ * Only the slots that the simulated clicks touch get copied, everything else
+ * is read through from the real container.
+ * The click handling follows the vanilla Container#slotClick() logic. The QUICK_MOVE outcome depends
+ * on each container's transferStackInSlot() implementation, so the vanilla routing is copied
+ * for the containers that have their own, and the rest are assumed to work like the vanilla chest.
+ * The container's own methods are never called, as they can have side effects.
+ */
+public class SimulatedContainer
+{
+    /** The vanilla QUICK_MOVE loop ends when the slot runs out of items, this is just a safety limit */
+    private static final int MAX_QUICK_MOVE_TRANSFERS = 64;
+
+    private final Container container;
+    private final EntityPlayer player;
+    private final int slotCount;
+    private final ItemStack[] stacks;
+    private final ItemStack[] hotbarStacks = new ItemStack[9];
+    private final BitSet changedSlots;
+    private final List<Slot> dragSlots = new ArrayList<Slot>();
+    private ItemStack stackCursor;
+    private int dragEvent;
+    private int dragMode;
+
+    public SimulatedContainer(Container container, EntityPlayer player)
+    {
+        this.container = container;
+        this.player = player;
+        this.slotCount = container.inventorySlots.size();
+        this.stacks = new ItemStack[this.slotCount];
+        this.changedSlots = new BitSet(this.slotCount);
+        this.stackCursor = player.inventory.getItemStack().copy();
+    }
+
+    public int getSlotCount()
+    {
+        return this.slotCount;
+    }
+
+    public Slot getSlot(int slotNum)
+    {
+        return this.container.inventorySlots.get(slotNum);
+    }
+
+    /**
+     * Returns the simulated stack in the given slot. The returned stack must not be modified.
+     */
+    public ItemStack getStack(int slotNum)
+    {
+        ItemStack stack = this.stacks[slotNum];
+        return stack != null ? stack : this.getSlot(slotNum).getStack();
+    }
+
+    public void setStack(int slotNum, ItemStack stack)
+    {
+        this.stacks[slotNum] = stack;
+        this.changedSlots.set(slotNum);
+    }
+
+    public ItemStack getCursorStack()
+    {
+        return this.stackCursor;
+    }
+
+    /**
+     * @return the slots whose contents have been changed by the simulated clicks so far
+     */
+    public BitSet getChangedSlots()
+    {
+        return this.changedSlots;
+    }
+
+    /**
+     * Returns the number of the first slot, other than excludedSlot, that the simulated clicks have changed.
+     * @return the slot number, or -1 if no other slots were changed
+     */
+    public int getFirstChangedSlot(int excludedSlot)
+    {
+        for (int slotNum = this.changedSlots.nextSetBit(0); slotNum >= 0; slotNum = this.changedSlots.nextSetBit(slotNum + 1))
+        {
+            if (slotNum != excludedSlot)
+            {
+                return slotNum;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks if this simulation and the other simulation of the same container
+     * have ended up with identical slot contents and cursor stacks.
+     */
+    public boolean hasSameContentsAs(SimulatedContainer other)
+    {
+        if (ItemStack.areItemStacksEqual(this.stackCursor, other.stackCursor) == false)
+        {
+            return false;
+        }
+
+        BitSet slots = (BitSet) this.changedSlots.clone();
+        slots.or(other.changedSlots);
+
+        for (int slotNum = slots.nextSetBit(0); slotNum >= 0; slotNum = slots.nextSetBit(slotNum + 1))
+        {
+            if (ItemStack.areItemStacksEqual(this.getStack(slotNum), other.getStack(slotNum)) == false)
+            {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < this.hotbarStacks.length; i++)
+        {
+            if ((this.hotbarStacks[i] != null || other.hotbarStacks[i] != null) &&
+                ItemStack.areItemStacksEqual(this.getHotbarStack(i, -1), other.getHotbarStack(i, -1)) == false)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the player inventory index of the hotbar slot that the given container slot refers to.
+     * @return the hotbar index 0 - 8, or -1 if the slot is not a hotbar slot
+     */
+    public int getHotbarIndex(int slotNum)
+    {
+        Slot slot = this.getSlot(slotNum);
+
+        for (int hotbarSlot = 0; hotbarSlot < 9; hotbarSlot++)
+        {
+            if (slot.isHere(this.player.inventory, hotbarSlot))
+            {
+                return hotbarSlot;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Simulates a slot click, like PlayerControllerMP#windowClick() would do it on the client side.
+     * @return false if the click type is not supported, or the slot number was invalid,
+     * or if the outcome of the click can't be simulated
+     */
+    public boolean clickSlot(int slotNum, int mouseButton, ClickType type)
+    {
+        if (type == ClickType.QUICK_CRAFT)
+        {
+            return this.clickQuickCraft(slotNum, mouseButton);
+        }
+
+        if (this.dragEvent != 0)
+        {
+            this.resetDrag();
+        }
+
+        if (slotNum == -999)
+        {
+            // Dropping items from the cursor
+            if (type == ClickType.PICKUP && this.stackCursor.isEmpty() == false)
+            {
+                if (mouseButton == 0)
+                {
+                    this.stackCursor = ItemStack.EMPTY;
+                }
+                else if (mouseButton == 1)
+                {
+                    this.stackCursor.shrink(1);
+                }
+            }
+
+            return type == ClickType.PICKUP;
+        }
+
+        if (slotNum < 0 || slotNum >= this.slotCount)
+        {
+            return false;
+        }
+
+        switch (type)
+        {
+            case PICKUP:
+                this.clickPickup(slotNum, mouseButton);
+                return true;
+            case QUICK_MOVE:
+                return this.clickQuickMove(slotNum);
+            case SWAP:
+                return this.clickSwap(slotNum, mouseButton);
+            case THROW:
+                this.clickThrow(slotNum, mouseButton);
+                return true;
+            case PICKUP_ALL:
+                this.clickPickupAll(slotNum, mouseButton);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private ItemStack getMutableStack(int slotNum)
+    {
+        ItemStack stack = this.stacks[slotNum];
+
+        if (stack == null)
+        {
+            stack = this.getSlot(slotNum).getStack().copy();
+            this.stacks[slotNum] = stack;
+        }
+
+        this.changedSlots.set(slotNum);
+
+        return stack;
+    }
+
+    private void clickPickup(int slotNum, int mouseButton)
+    {
+        Slot slot = this.getSlot(slotNum);
+        ItemStack stackSlot = this.getStack(slotNum);
+        ItemStack stackCursor = this.stackCursor;
+
+        if (stackSlot.isEmpty())
+        {
+            if (stackCursor.isEmpty() == false && slot.isItemValid(stackCursor))
+            {
+                int amount = Math.min(mouseButton == 0 ? stackCursor.getCount() : 1, slot.getItemStackLimit(stackCursor));
+                this.setStack(slotNum, stackCursor.splitStack(amount));
+            }
+        }
+        else if (slot.canTakeStack(this.player))
+        {
+            if (stackCursor.isEmpty())
+            {
+                int amount = mouseButton == 0 ? stackSlot.getCount() : (stackSlot.getCount() + 1) / 2;
+                this.stackCursor = this.getMutableStack(slotNum).splitStack(amount);
+            }
+            else if (slot.isItemValid(stackCursor))
+            {
+                if (InventoryUtils.areStacksEqual(stackSlot, stackCursor))
+                {
+                    int amount = mouseButton == 0 ? stackCursor.getCount() : 1;
+                    amount = Math.min(amount, slot.getItemStackLimit(stackCursor) - stackSlot.getCount());
+                    amount = Math.min(amount, stackCursor.getMaxStackSize() - stackSlot.getCount());
+
+                    if (amount > 0)
+                    {
+                        stackCursor.shrink(amount);
+                        this.getMutableStack(slotNum).grow(amount);
+                    }
+                }
+                else if (stackCursor.getCount() <= slot.getItemStackLimit(stackCursor))
+                {
+                    this.stackCursor = stackSlot.copy();
+                    this.setStack(slotNum, stackCursor);
+                }
+            }
+            // Taking items from an output slot that doesn't accept items, into a matching stack in the cursor
+            else if (stackCursor.getMaxStackSize() > 1 && InventoryUtils.areStacksEqual(stackSlot, stackCursor))
+            {
+                int amount = stackSlot.getCount();
+
+                if (amount + stackCursor.getCount() <= stackCursor.getMaxStackSize())
+                {
+                    stackCursor.grow(amount);
+                    this.setStack(slotNum, ItemStack.EMPTY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Simulates the Container#slotClick() QUICK_MOVE loop, which keeps calling transferStackInSlot()
+     * until the slot runs out of items or nothing more gets moved. Each transfer is one
+     * mergeItemStack() call into the target slots of the container type, see getQuickMoveTargets().
+     * @return false if the slot is a crafting or trade output slot, where the shift-click would
+     * craft or trade repeatedly, which can't be simulated
+     */
+    private boolean clickQuickMove(int slotNum)
+    {
+        Slot slotFrom = this.getSlot(slotNum);
+
+        if (slotFrom instanceof SlotCrafting || slotFrom instanceof SlotMerchantResult)
+        {
+            return false;
+        }
+
+        if (this.getStack(slotNum).isEmpty() || slotFrom.canTakeStack(this.player) == false)
+        {
+            return true;
+        }
+
+        IntDeque targets = this.getQuickMoveTargets(slotNum, this.getStack(slotNum));
+        ItemStack stack = this.getMutableStack(slotNum);
+
+        for (int i = 0; i < MAX_QUICK_MOVE_TRANSFERS && stack.isEmpty() == false; i++)
+        {
+            if (this.mergeItemStack(stack, targets, slotNum) == false)
+            {
+                break;
+            }
+        }
+
+        if (stack.isEmpty())
+        {
+            this.setStack(slotNum, ItemStack.EMPTY);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the slots, in order, that the container's transferStackInSlot() would merge the stack into.
+     * The vanilla player inventory, crafting table and furnace containers have their own routing,
+     * which is copied here. All the other containers are expected to follow the vanilla chest's pattern:
+     * the items from the player's inventory go into the other inventories starting from the first slot,
+     * and the other items go into the player's inventory starting from the last slot (the hotbar first).
+     * If there are no other inventories, the items move between the main inventory and the hotbar.
+     */
+    private IntDeque getQuickMoveTargets(int slotNum, ItemStack stack)
+    {
+        Class<?> clazz = this.container.getClass();
+
+        if (clazz == ContainerPlayer.class && this.slotCount == 46)
+        {
+            return this.getPlayerContainerTargets(slotNum, stack);
+        }
+        else if (clazz == ContainerWorkbench.class && this.slotCount == 46)
+        {
+            if (slotNum >= 10 && slotNum < 37)
+            {
+                return range(37, 46, false);
+            }
+            else if (slotNum >= 37)
+            {
+                return range(10, 37, false);
+            }
+
+            return range(10, 46, slotNum == 0);
+        }
+        else if (clazz == ContainerFurnace.class && this.slotCount == 39)
+        {
+            if (slotNum == 2)
+            {
+                return range(3, 39, true);
+            }
+            else if (slotNum < 2)
+            {
+                return range(3, 39, false);
+            }
+            else if (FurnaceRecipes.instance().getSmeltingResult(stack).isEmpty() == false)
+            {
+                return range(0, 1, false);
+            }
+            else if (TileEntityFurnace.isItemFuel(stack))
+            {
+                return range(1, 2, false);
+            }
+
+            return slotNum < 30 ? range(30, 39, false) : range(3, 30, false);
+        }
+
+        return this.getGenericTargets(slotNum);
+    }
+
+    private IntDeque getPlayerContainerTargets(int slotNum, ItemStack stack)
+    {
+        EntityEquipmentSlot equipmentSlot = EntityLiving.getSlotForItemStack(stack);
+
+        if (slotNum < 9)
+        {
+            return range(9, 45, slotNum == 0);
+        }
+        else if (equipmentSlot.getSlotType() == EntityEquipmentSlot.Type.ARMOR &&
+                 this.getStack(8 - equipmentSlot.getIndex()).isEmpty())
+        {
+            int armorSlot = 8 - equipmentSlot.getIndex();
+            return range(armorSlot, armorSlot + 1, false);
+        }
+        else if (equipmentSlot == EntityEquipmentSlot.OFFHAND && this.getStack(45).isEmpty())
+        {
+            return range(45, 46, false);
+        }
+        else if (slotNum < 36)
+        {
+            return range(36, 45, false);
+        }
+        else if (slotNum < 45)
+        {
+            return range(9, 36, false);
+        }
+
+        return range(9, 45, false);
+    }
+
+    private IntDeque getGenericTargets(int slotNum)
+    {
+        Slot slotFrom = this.getSlot(slotNum);
+        boolean fromPlayerInventory = slotFrom.inventory instanceof InventoryPlayer;
+        IntDeque targets = new IntDeque();
+
+        for (int i = 0; i < this.slotCount; i++)
+        {
+            if ((this.getSlot(i).inventory instanceof InventoryPlayer) != fromPlayerInventory)
+            {
+                if (fromPlayerInventory)
+                {
+                    targets.addLast(i);
+                }
+                else
+                {
+                    targets.addFirst(i);
+                }
+            }
+        }
+
+        // No other inventories, move between the main inventory and the hotbar
+        if (targets.isEmpty() && fromPlayerInventory)
+        {
+            boolean fromHotbar = slotFrom.getSlotIndex() < 9;
+
+            for (int i = 0; i < this.slotCount; i++)
+            {
+                Slot slot = this.getSlot(i);
+                int index = slot.getSlotIndex();
+
+                if (slot.inventory instanceof InventoryPlayer && index < 36 && (index < 9) != fromHotbar)
+                {
+                    targets.addLast(i);
+                }
+            }
+        }
+
+        return targets;
+    }
+
+    private static IntDeque range(int start, int end, boolean reverse)
+    {
+        IntDeque slots = new IntDeque(end - start);
+
+        for (int i = start; i < end; i++)
+        {
+            if (reverse)
+            {
+                slots.addFirst(i);
+            }
+            else
+            {
+                slots.addLast(i);
+            }
+        }
+
+        return slots;
+    }
+
+    /**
+     * Simulates Container#mergeItemStack() into the given slots, in the given order.
+     * Like the vanilla method, this first fills the existing matching stacks, and then puts
+     * the rest into the first empty slot that accepts the items.
+     * @return true if any items were moved
+     */
+    private boolean mergeItemStack(ItemStack stack, IntDeque targets, int slotNumFrom)
+    {
+        boolean moved = false;
+
+        if (stack.isStackable())
+        {
+            for (int i = 0; i < targets.size() && stack.isEmpty() == false; i++)
+            {
+                int slotNum = targets.get(i);
+                ItemStack stackDst = this.getStack(slotNum);
+
+                if (slotNum != slotNumFrom && stackDst.isEmpty() == false && InventoryUtils.areStacksEqual(stackDst, stack))
+                {
+                    int max = Math.min(this.getSlot(slotNum).getSlotStackLimit(), stack.getMaxStackSize());
+                    int amount = Math.min(stack.getCount(), max - stackDst.getCount());
+
+                    if (amount > 0)
+                    {
+                        this.getMutableStack(slotNum).grow(amount);
+                        stack.shrink(amount);
+                        moved = true;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < targets.size() && stack.isEmpty() == false; i++)
+        {
+            int slotNum = targets.get(i);
+            Slot slot = this.getSlot(slotNum);
+
+            if (slotNum != slotNumFrom && this.getStack(slotNum).isEmpty() && slot.isItemValid(stack))
+            {
+                this.setStack(slotNum, stack.splitStack(Math.min(stack.getCount(), slot.getSlotStackLimit())));
+                moved = true;
+                break;
+            }
+        }
+
+        return moved;
+    }
+
+    private boolean clickSwap(int slotNum, int hotbarSlot)
+    {
+        if (hotbarSlot < 0 || hotbarSlot >= 9)
+        {
+            return false;
+        }
+
+        Slot slot = this.getSlot(slotNum);
+        int hotbarSlotNum = this.getContainerSlotNumberForHotbarSlot(hotbarSlot);
+        ItemStack stackHotbar = this.getHotbarStack(hotbarSlot, hotbarSlotNum);
+        ItemStack stackSlot = this.getStack(slotNum);
+
+        if (stackHotbar.isEmpty() && stackSlot.isEmpty())
+        {
+            return true;
+        }
+
+        if (stackHotbar.isEmpty())
+        {
+            if (slot.canTakeStack(this.player))
+            {
+                this.setHotbarStack(hotbarSlot, hotbarSlotNum, stackSlot.copy());
+                this.setStack(slotNum, ItemStack.EMPTY);
+            }
+        }
+        else if (stackSlot.isEmpty())
+        {
+            if (slot.isItemValid(stackHotbar))
+            {
+                ItemStack stackNewHotbar = stackHotbar.copy();
+                this.setStack(slotNum, stackNewHotbar.splitStack(slot.getItemStackLimit(stackHotbar)));
+                this.setHotbarStack(hotbarSlot, hotbarSlotNum, stackNewHotbar);
+            }
+        }
+        // Not simulating the case of an oversized hotbar stack, which would need the rest of the player inventory
+        else if (slot.canTakeStack(this.player) && slot.isItemValid(stackHotbar) &&
+                 stackHotbar.getCount() <= slot.getItemStackLimit(stackHotbar))
+        {
+            ItemStack stackSlotCopy = stackSlot.copy();
+            this.setStack(slotNum, stackHotbar.copy());
+            this.setHotbarStack(hotbarSlot, hotbarSlotNum, stackSlotCopy);
+        }
+
+        return true;
+    }
+
+    private int getContainerSlotNumberForHotbarSlot(int hotbarSlot)
+    {
+        for (int slotNum = 0; slotNum < this.slotCount; slotNum++)
+        {
+            if (this.getSlot(slotNum).isHere(this.player.inventory, hotbarSlot))
+            {
+                return slotNum;
+            }
+        }
+
+        return -1;
+    }
+
+    private ItemStack getHotbarStack(int hotbarSlot, int containerSlotNum)
+    {
+        if (containerSlotNum >= 0)
+        {
+            return this.getStack(containerSlotNum);
+        }
+
+        ItemStack stack = this.hotbarStacks[hotbarSlot];
+        return stack != null ? stack : this.player.inventory.getStackInSlot(hotbarSlot);
+    }
+
+    private void setHotbarStack(int hotbarSlot, int containerSlotNum, ItemStack stack)
+    {
+        if (containerSlotNum >= 0)
+        {
+            this.setStack(containerSlotNum, stack);
+        }
+        else
+        {
+            this.hotbarStacks[hotbarSlot] = stack;
+        }
+    }
+
+    private void clickThrow(int slotNum, int mouseButton)
+    {
+        Slot slot = this.getSlot(slotNum);
+        ItemStack stack = this.getStack(slotNum);
+
+        if (this.stackCursor.isEmpty() && stack.isEmpty() == false && slot.canTakeStack(this.player))
+        {
+            this.getMutableStack(slotNum).shrink(mouseButton == 0 ? 1 : stack.getCount());
+        }
+    }
+
+    private void clickPickupAll(int slotNum, int mouseButton)
+    {
+        Slot slot = this.getSlot(slotNum);
+        ItemStack stackCursor = this.stackCursor;
+
+        if (stackCursor.isEmpty() || (this.getStack(slotNum).isEmpty() == false && slot.canTakeStack(this.player)))
+        {
+            return;
+        }
+
+        int start = mouseButton == 0 ? 0 : this.slotCount - 1;
+        int increment = mouseButton == 0 ? 1 : -1;
+
+        // First collect from non-full stacks, and then from full stacks
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (int i = start; i >= 0 && i < this.slotCount && stackCursor.getCount() < stackCursor.getMaxStackSize(); i += increment)
+            {
+                Slot slotTmp = this.getSlot(i);
+                ItemStack stackTmp = this.getStack(i);
+
+                if (stackTmp.isEmpty() == false && InventoryUtils.areStacksEqual(stackTmp, stackCursor) &&
+                    slotTmp.canTakeStack(this.player) && this.container.canMergeSlot(stackCursor, slotTmp) &&
+                    (pass != 0 || stackTmp.getCount() != stackTmp.getMaxStackSize()))
+                {
+                    int amount = Math.min(stackCursor.getMaxStackSize() - stackCursor.getCount(), stackTmp.getCount());
+                    this.getMutableStack(i).shrink(amount);
+                    stackCursor.grow(amount);
+                }
+            }
+        }
+    }
+
+    private boolean clickQuickCraft(int slotNum, int mouseButton)
+    {
+        int dragEventPrevious = this.dragEvent;
+        this.dragEvent = Container.getDragEvent(mouseButton);
+
+        if ((dragEventPrevious != 1 || this.dragEvent != 2) && dragEventPrevious != this.dragEvent)
+        {
+            this.resetDrag();
+        }
+        else if (this.stackCursor.isEmpty())
+        {
+            this.resetDrag();
+        }
+        else if (this.dragEvent == 0)
+        {
+            this.dragMode = Container.extractDragMode(mouseButton);
+
+            if (Container.isValidDragMode(this.dragMode, this.player))
+            {
+                this.dragEvent = 1;
+                this.dragSlots.clear();
+            }
+            else
+            {
+                this.resetDrag();
+            }
+        }
+        else if (this.dragEvent == 1)
+        {
+            if (slotNum < 0 || slotNum >= this.slotCount)
+            {
+                return false;
+            }
+
+            Slot slot = this.getSlot(slotNum);
+
+            if (this.canDragIntoSlot(slotNum, this.stackCursor) &&
+                (this.dragMode == 2 || this.stackCursor.getCount() > this.dragSlots.size()) &&
+                this.dragSlots.contains(slot) == false)
+            {
+                this.dragSlots.add(slot);
+            }
+        }
+        else if (this.dragEvent == 2)
+        {
+            if (this.dragSlots.isEmpty() == false)
+            {
+                ItemStack stackTemplate = this.stackCursor.copy();
+                int countLeft = this.stackCursor.getCount();
+                int slotsTotal = this.dragSlots.size();
+
+                for (Slot slot : this.dragSlots)
+                {
+                    int slotNumDrag = slot.slotNumber;
+
+                    if (this.canDragIntoSlot(slotNumDrag, this.stackCursor) &&
+                        (this.dragMode == 2 || this.stackCursor.getCount() >= slotsTotal))
+                    {
+                        int existing = this.getStack(slotNumDrag).getCount();
+                        int amount = this.dragMode == 0 ? stackTemplate.getCount() / slotsTotal : (this.dragMode == 1 ? 1 : stackTemplate.getMaxStackSize());
+                        int newSize = Math.min(amount + existing, Math.min(stackTemplate.getMaxStackSize(), slot.getItemStackLimit(stackTemplate)));
+                        ItemStack stackNew = stackTemplate.copy();
+                        stackNew.setCount(newSize);
+                        countLeft -= newSize - existing;
+                        this.setStack(slotNumDrag, stackNew);
+                    }
+                }
+
+                stackTemplate.setCount(countLeft);
+                this.stackCursor = stackTemplate;
+            }
+
+            this.resetDrag();
+        }
+        else
+        {
+            this.resetDrag();
+        }
+
+        return true;
+    }
+
+    private boolean canDragIntoSlot(int slotNum, ItemStack stack)
+    {
+        Slot slot = this.getSlot(slotNum);
+        ItemStack stackSlot = this.getStack(slotNum);
+
+        return (stackSlot.isEmpty() || (InventoryUtils.areStacksEqual(stackSlot, stack) && stackSlot.getCount() <= stack.getMaxStackSize())) &&
+               slot.isItemValid(stack) && this.container.canDragIntoSlot(slot);
+    }
+
+    private void resetDrag()
+    {
+        this.dragEvent = 0;
+        this.dragSlots.clear();
+    }
+}
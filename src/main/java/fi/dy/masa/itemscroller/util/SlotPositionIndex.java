@@ -0,0 +1,185 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import javax.annotation.Nullable;
+import net.minecraft.client.gui.inventory.GuiContainer;
+import net.minecraft.inventory.Slot;
+
+/**
+ * A grid based spatial index of the slot rectangles of a GuiContainer,
+ * which replaces the linear scan over all the slots in GuiContainer#getSlotAtPosition().
+ * The index is cached for the last used GUI, and it gets rebuilt if the GUI is moved
+ * (for example after a resize), or if the slot list or any of the slot positions change.
+ */
+public class SlotPositionIndex
+{
+    private static final int CELL_SIZE = 16;
+    private static final int[] EMPTY_CELL = new int[0];
+    private static WeakReference<GuiContainer> lastGui = new WeakReference<GuiContainer>(null);
+    private static SlotPositionIndex lastIndex;
+
+    private final List<Slot> slots;
+    private final int slotCount;
+    private final int[] slotPosX;
+    private final int[] slotPosY;
+    private final int guiLeft;
+    private final int guiTop;
+    private int minX;
+    private int minY;
+    private int cellsX;
+    private int cellsY;
+    private int[][] cells;
+
+    private SlotPositionIndex(GuiContainer gui)
+    {
+        this.slots = gui.inventorySlots.inventorySlots;
+        this.slotCount = this.slots.size();
+        this.slotPosX = new int[this.slotCount];
+        this.slotPosY = new int[this.slotCount];
+        this.guiLeft = gui.getGuiLeft();
+        this.guiTop = gui.getGuiTop();
+        this.buildCells();
+    }
+
+    /**
+     * Returns an up-to-date index for the given GUI
+     */
+    public static SlotPositionIndex getFor(GuiContainer gui)
+    {
+        SlotPositionIndex index = lastIndex;
+
+        if (index == null || lastGui.get() != gui || index.isValidFor(gui) == false)
+        {
+            index = new SlotPositionIndex(gui);
+            lastIndex = index;
+            lastGui = new WeakReference<GuiContainer>(gui);
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the slot at the given screen position, with the same hit area
+     * and slot priority as GuiContainer#getSlotAtPosition().
+     */
+    @Nullable
+    public Slot getSlotAt(int x, int y)
+    {
+        int relX = x - this.guiLeft;
+        int relY = y - this.guiTop;
+        int cellX = Math.floorDiv(relX - this.minX, CELL_SIZE);
+        int cellY = Math.floorDiv(relY - this.minY, CELL_SIZE);
+
+        if (cellX < 0 || cellY < 0 || cellX >= this.cellsX || cellY >= this.cellsY)
+        {
+            return null;
+        }
+
+        // The slot indices in each cell are in ascending order, so the first hit is the same one that vanilla would return
+        for (int slotIndex : this.cells[cellY * this.cellsX + cellX])
+        {
+            Slot slot = this.slots.get(slotIndex);
+
+            if (isPointInSlot(slot, relX, relY) && slot.isEnabled())
+            {
+                return slot;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isValidFor(GuiContainer gui)
+    {
+        if (gui.inventorySlots.inventorySlots != this.slots || this.slots.size() != this.slotCount ||
+            gui.getGuiLeft() != this.guiLeft || gui.getGuiTop() != this.guiTop)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < this.slotCount; i++)
+        {
+            Slot slot = this.slots.get(i);
+
+            if (slot.xPos != this.slotPosX[i] || slot.yPos != this.slotPosY[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void buildCells()
+    {
+        if (this.slotCount == 0)
+        {
+            this.cells = new int[0][];
+            this.cellsX = 0;
+            this.cellsY = 0;
+            return;
+        }
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        for (int i = 0; i < this.slotCount; i++)
+        {
+            Slot slot = this.slots.get(i);
+            this.slotPosX[i] = slot.xPos;
+            this.slotPosY[i] = slot.yPos;
+            minX = Math.min(minX, slot.xPos - 1);
+            minY = Math.min(minY, slot.yPos - 1);
+            maxX = Math.max(maxX, slot.xPos + 16);
+            maxY = Math.max(maxY, slot.yPos + 16);
+        }
+
+        this.minX = minX;
+        this.minY = minY;
+        this.cellsX = (maxX - minX) / CELL_SIZE + 1;
+        this.cellsY = (maxY - minY) / CELL_SIZE + 1;
+
+        IntDeque[] lists = new IntDeque[this.cellsX * this.cellsY];
+
+        for (int i = 0; i < this.slotCount; i++)
+        {
+            int cellX1 = (this.slotPosX[i] - 1 - minX) / CELL_SIZE;
+            int cellY1 = (this.slotPosY[i] - 1 - minY) / CELL_SIZE;
+            int cellX2 = (this.slotPosX[i] + 16 - minX) / CELL_SIZE;
+            int cellY2 = (this.slotPosY[i] + 16 - minY) / CELL_SIZE;
+
+            for (int cellY = cellY1; cellY <= cellY2; cellY++)
+            {
+                for (int cellX = cellX1; cellX <= cellX2; cellX++)
+                {
+                    int cell = cellY * this.cellsX + cellX;
+
+                    if (lists[cell] == null)
+                    {
+                        lists[cell] = new IntDeque(4);
+                    }
+
+                    lists[cell].add(i);
+                }
+            }
+        }
+
+        this.cells = new int[lists.length][];
+
+        for (int i = 0; i < lists.length; i++)
+        {
+            this.cells[i] = lists[i] != null ? lists[i].toArray() : EMPTY_CELL;
+        }
+    }
+
+    /**
+     * The same hit area as in GuiContainer#isMouseOverSlot(), ie. the 16x16 slot area plus a one pixel border
+     */
+    private static boolean isPointInSlot(Slot slot, int relX, int relY)
+    {
+        return relX >= slot.xPos - 1 && relX < slot.xPos + 17 && relY >= slot.yPos - 1 && relY < slot.yPos + 17;
+    }
+}
@@ -0,0 +1,137 @@
+package fi.dy.masa.itemscroller.util;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import net.minecraft.inventory.Container;
+import net.minecraft.inventory.Slot;
+import net.minecraft.item.ItemStack;
+
+/**
+ * Priority queues of the slots that have items identical to the reference stack,
+ * and that are NOT in the same inventory as the reference slot, ordered by the stack size.
+ * The slots are scanned once, and after that the caller needs to call update()
+ * for the slots whose contents it changed. Outdated entries are skipped lazily.
+ */
+public class SourceSlotQueue
+{
+    private static final Comparator<SlotEntry> LARGEST_FIRST = new Comparator<SlotEntry>()
+    {
+        @Override
+        public int compare(SlotEntry e1, SlotEntry e2)
+        {
+            return e1.size != e2.size ? Integer.compare(e2.size, e1.size) : Integer.compare(e1.slotNum, e2.slotNum);
+        }
+    };
+
+    private static final Comparator<SlotEntry> SMALLEST_FIRST = new Comparator<SlotEntry>()
+    {
+        @Override
+        public int compare(SlotEntry e1, SlotEntry e2)
+        {
+            return e1.size != e2.size ? Integer.compare(e1.size, e2.size) : Integer.compare(e1.slotNum, e2.slotNum);
+        }
+    };
+
+    private final Container container;
+    private final ItemStack stackReference;
+    private final int idealSize;
+    private final PriorityQueue<SlotEntry> largest = new PriorityQueue<SlotEntry>(16, LARGEST_FIRST);
+    private final PriorityQueue<SlotEntry> smallestAdequate = new PriorityQueue<SlotEntry>(16, SMALLEST_FIRST);
+
+    /**
+     * @param idealSize the minimum stack size for getSmallestAdequateSlot(). Use 0 if that method is not needed.
+     */
+    public SourceSlotQueue(Container container, Slot slotReference, ItemStack stackReference, int idealSize)
+    {
+        this.container = container;
+        this.stackReference = stackReference;
+        this.idealSize = idealSize;
+
+        BitSet candidates = ContainerIndex.getFor(container).getSlotsWithItem(stackReference);
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+        {
+            Slot slot = container.inventorySlots.get(i);
+
+            if (InventoryUtils.areSlotsInSameInventory(slot, slotReference) == false)
+            {
+                this.update(i);
+            }
+        }
+    }
+
+    /**
+     * Re-queues the given slot with its current stack size, after its contents have been changed.
+     * The slot must not be in the same inventory as the reference slot.
+     */
+    public void update(int slotNum)
+    {
+        int size = this.getCurrentSize(slotNum);
+
+        if (size > 0)
+        {
+            SlotEntry entry = new SlotEntry(slotNum, size);
+            this.largest.add(entry);
+
+            if (this.idealSize > 0 && size >= this.idealSize)
+            {
+                this.smallestAdequate.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the slot number of the largest matching stack, or -1 if there are none left
+     */
+    public int getLargestSlot()
+    {
+        return this.peekValid(this.largest);
+    }
+
+    /**
+     * Returns the slot number of the smallest matching stack that has at least idealSize items.
+     * If an adequately large stack is not found, then the largest one is returned.
+     */
+    public int getSmallestAdequateSlot()
+    {
+        int slotNum = this.peekValid(this.smallestAdequate);
+        return slotNum != -1 ? slotNum : this.peekValid(this.largest);
+    }
+
+    private int peekValid(PriorityQueue<SlotEntry> queue)
+    {
+        SlotEntry entry;
+
+        while ((entry = queue.peek()) != null)
+        {
+            if (this.getCurrentSize(entry.slotNum) == entry.size)
+            {
+                return entry.slotNum;
+            }
+
+            // The slot contents have changed since this entry was added, there should be a newer entry if there are still items
+            queue.poll();
+        }
+
+        return -1;
+    }
+
+    private int getCurrentSize(int slotNum)
+    {
+        ItemStack stack = this.container.inventorySlots.get(slotNum).getStack();
+        return InventoryUtils.areStacksEqual(stack, this.stackReference) ? InventoryUtils.getStackSize(stack) : 0;
+    }
+
+    private static class SlotEntry
+    {
+        private final int slotNum;
+        private final int size;
+
+        private SlotEntry(int slotNum, int size)
+        {
+            this.slotNum = slotNum;
+            this.size = size;
+        }
+    }
+}
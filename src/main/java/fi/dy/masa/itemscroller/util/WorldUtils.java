@@ -0,0 +1,40 @@
+package fi.dy.masa.itemscroller.util;
+
+import javax.annotation.Nullable;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ServerData;
+import net.minecraft.server.integrated.IntegratedServer;
+
+public class WorldUtils
+{
+    /**
+     * Returns a file name safe identifier for the current single player world or multiplayer server.
+     * @return the world folder name in single player, the server address in multiplayer, or null if neither is available
+     */
+    @Nullable
+    public static String getWorldOrServerName()
+    {
+        Minecraft mc = Minecraft.getMinecraft();
+
+        if (mc.isSingleplayer())
+        {
+            IntegratedServer server = mc.getIntegratedServer();
+
+            if (server != null)
+            {
+                return server.getFolderName();
+            }
+        }
+        else
+        {
+            ServerData server = mc.getCurrentServerData();
+
+            if (server != null)
+            {
+                return server.serverIP.replace(':', '_');
+            }
+        }
+
+        return null;
+    }
+}